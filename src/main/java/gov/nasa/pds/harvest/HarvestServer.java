@@ -10,14 +10,22 @@ import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import gov.nasa.pds.harvest.cache.ChecksumCache;
+import gov.nasa.pds.harvest.cache.LidvidCache;
+import gov.nasa.pds.harvest.cache.LidvidIndex;
 import gov.nasa.pds.harvest.cfg.Configuration;
 import gov.nasa.pds.harvest.cfg.ConfigurationReader;
+import gov.nasa.pds.harvest.cfg.EsClientCfg;
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
 import gov.nasa.pds.harvest.dao.RegistryManager;
 import gov.nasa.pds.harvest.http.MemoryServlet;
 import gov.nasa.pds.harvest.http.StatusServlet;
+import gov.nasa.pds.harvest.mq.AdaptiveLimiter;
 import gov.nasa.pds.harvest.mq.MQClient;
 import gov.nasa.pds.harvest.mq.rmq.ConsumerFactory;
 import gov.nasa.pds.harvest.mq.rmq.RabbitMQClient;
+import gov.nasa.pds.harvest.mq.spool.SpoolClient;
+import gov.nasa.pds.harvest.util.xml.DocumentBuilderPool;
 import gov.nasa.pds.registry.common.cfg.RegistryCfg;
 import gov.nasa.pds.registry.common.util.ExceptionUtils;
 
@@ -32,6 +40,7 @@ public class HarvestServer
     private Configuration cfg;
     
     private MQClient mqClient;
+    private Server webServer;
 
     
     /**
@@ -60,7 +69,14 @@ public class HarvestServer
             throw new Exception("Invalid configuration. Message server type is not set.");
         }
         
-        ConsumerFactory consumerFactory = new ConsumerFactory(cfg.harvestCfg, cfg.registryCfg);
+        // Adaptive limit of concurrent Elasticsearch bulk loads and RabbitMQ prefetch
+        AdaptiveLimiter limiter = null;
+        if(cfg.harvestCfg.adaptive)
+        {
+            limiter = new AdaptiveLimiter(cfg.rmqCfg.prefetch, cfg.harvestCfg.adaptiveMaxLimit);
+        }
+        
+        ConsumerFactory consumerFactory = new ConsumerFactory(cfg.harvestCfg, cfg.registryCfg, limiter);
         
         switch(cfg.mqType)
         {
@@ -68,7 +84,9 @@ public class HarvestServer
             //return new ActiveMQClient(cfg.amqCfg);
             throw new Exception("ActiveMQ client is not implemented yet.");
         case RabbitMQ:
-            return new RabbitMQClient(cfg.rmqCfg, consumerFactory);
+            return new RabbitMQClient(cfg.rmqCfg, cfg.harvestCfg, consumerFactory);
+        case Spool:
+            return new SpoolClient(cfg.spoolCfg, cfg.harvestCfg, consumerFactory);
         }
         
         throw new Exception("Invalid message server type: " + cfg.mqType);
@@ -84,11 +102,49 @@ public class HarvestServer
         try
         {
             // Init registry (elasticsearch) manager
-            initRegistry(cfg.registryCfg);
+            initRegistry(cfg.registryCfg, cfg.esClientCfg);
+            
+            // Split big bulk requests into sub-bulks
+            HarvestCfg hcfg = cfg.harvestCfg;
+            RegistryManager.getInstance().getBulkLoader().setSplitting(
+                    hcfg.bulkMaxDocs, hcfg.bulkMaxBytes, hcfg.bulkConcurrency);
+            
+            // Split big product ID lookups into chunks
+            RegistryManager.getInstance().getRegistryDao().setLookupChunking(
+                    hcfg.lookupChunkSize, hcfg.lookupConcurrency);
+            
+            // Retry transient Elasticsearch errors. Pause consumers while Elasticsearch is down.
+            RegistryManager.getInstance().getCallPolicy().configure(
+                    hcfg.esMaxRetries, hcfg.esBreakerFailures, hcfg.esBreakerOpenSec);
+            
+            // Init pool of XML parsers. One parser per label processing thread.
+            DocumentBuilderPool.init(hcfg.xmlParserFactory, 
+                    (hcfg.productConsumers + hcfg.bulkConsumers) * hcfg.processThreads);
+            
+            // Init data file checksum cache
+            if(cfg.harvestCfg.checksumCacheDir != null)
+            {
+                ChecksumCache.init(cfg.harvestCfg.checksumCacheDir, cfg.harvestCfg.checksumCacheMaxEntries);
+            }
+            
+            // Init cache of registered LIDVIDs
+            if(cfg.harvestCfg.lidvidCacheMaxEntries > 0)
+            {
+                LidvidCache.init(cfg.harvestCfg.lidvidCacheMaxEntries, cfg.harvestCfg.lidvidCacheTtlSec);
+            }
+            
+            // Start building off-heap index of all registered LIDVIDs
+            if(cfg.harvestCfg.lidvidIndexDir != null)
+            {
+                LidvidIndex.init(cfg.harvestCfg.lidvidIndexDir, cfg.harvestCfg.lidvidIndexRefreshSec);
+            }
             
             // Start embedded web server
             startWebServer(cfg.webPort);
             
+            // Drain message consumers on SIGTERM / SIGINT
+            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown"));
+            
             // Start message queue (ActiveMQ or RabbitMQ) client
             mqClient.run();
         }
@@ -102,9 +158,48 @@ public class HarvestServer
     }
 
     
-    private void initRegistry(RegistryCfg cfg) throws Exception
+    /**
+     * Graceful shutdown. Drain message consumers (finish and acknowledge 
+     * messages being processed), close Elasticsearch client and stop web server.
+     */
+    private void shutdown()
+    {
+        log.info("Shutting down");
+        
+        try
+        {
+            mqClient.close();
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not drain message consumers. " + ExceptionUtils.getMessage(ex));
+        }
+        
+        RegistryManager.destroy();
+        ChecksumCache.destroy();
+        LidvidCache.destroy();
+        LidvidIndex.destroy();
+        
+        if(webServer != null)
+        {
+            try
+            {
+                webServer.stop();
+            }
+            catch(Exception ex)
+            {
+                log.error("Could not stop web server. " + ExceptionUtils.getMessage(ex));
+            }
+        }
+        
+        log.info("Harvest server stopped");
+        LogManager.shutdown();
+    }
+    
+    
+    private void initRegistry(RegistryCfg cfg, EsClientCfg clientCfg) throws Exception
     {
-        RegistryManager.init(cfg);
+        RegistryManager.init(cfg, clientCfg);
         RegistryManager.getInstance().getFieldNameCache().update();
     }
     
@@ -118,6 +213,7 @@ public class HarvestServer
         // Max threads = 10, min threads = 1
         QueuedThreadPool threadPool = new QueuedThreadPool(10, 1);
         Server server = new Server(threadPool);
+        webServer = server;
         
         // HTTP connector
         ServerConnector connector = new ServerConnector(server);
@@ -0,0 +1,279 @@
+package gov.nasa.pds.harvest.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.harvest.util.Md5Utils;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * A singleton persistent cache of data file and label MD5 checksums.
+ * <p>
+ * Entries are keyed by canonical file path and are valid only while
+ * file size and modification time don't change, so re-harvesting
+ * unchanged data files and checking unchanged labels doesn't re-read them.
+ * </p>
+ * <p>
+ * The cache is an append-only log file ("checksums.log") with an in-memory
+ * LRU index. Each log line is "md5 TAB size TAB mtime TAB path".
+ * Later lines override earlier ones. The log is compacted (rewritten from
+ * the index) when it grows much bigger than the index.
+ * </p>
+ */
+public class ChecksumCache
+{
+    private static final String LOG_FILE_NAME = "checksums.log";
+    private static final int MIN_COMPACT_LINES = 10_000;
+
+    // Singleton
+    private static ChecksumCache instance = null;
+
+    /**
+     * Cache entry
+     */
+    private static class CacheEntry
+    {
+        public long size;
+        public long mtime;
+        public String md5;
+
+        public CacheEntry(long size, long mtime, String md5)
+        {
+            this.size = size;
+            this.mtime = mtime;
+            this.md5 = md5;
+        }
+    }
+
+    private Logger log;
+    private Path logFile;
+
+    private LruMap<String, CacheEntry> index;
+    private BufferedWriter writer;
+    private long logLines;
+
+    // Statistics
+    private long compactions;
+    private long bytesHashed;
+
+
+    /**
+     * Private constructor. Use init() and getInstance() instead.
+     * @param dir cache directory
+     * @param maxEntries max number of entries in the cache. Least recently used entries are evicted.
+     * @throws Exception an exception
+     */
+    private ChecksumCache(String dir, int maxEntries) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+        index = new LruMap<>(maxEntries);
+
+        Path cacheDir = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(cacheDir);
+        logFile = cacheDir.resolve(LOG_FILE_NAME);
+
+        load();
+        // Evictions while loading the log don't count
+        index.resetEvictions();
+
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        log.info("Checksum cache: " + logFile + ", entries: " + index.size());
+        StatsRegistry.register("checksumCache", this::getStats);
+    }
+
+
+    /**
+     * Initialize the singleton.
+     * @param dir cache directory
+     * @param maxEntries max number of entries in the cache
+     * @throws Exception an exception
+     */
+    public static void init(String dir, int maxEntries) throws Exception
+    {
+        instance = new ChecksumCache(dir, maxEntries);
+    }
+
+
+    /**
+     * Get the singleton instance.
+     * @return Checksum cache singleton or null if the cache is disabled.
+     */
+    public static ChecksumCache getInstance()
+    {
+        return instance;
+    }
+
+
+    /**
+     * Flush and close the log file.
+     */
+    public static void destroy()
+    {
+        if(instance == null) return;
+
+        synchronized(instance)
+        {
+            CloseUtils.close(instance.writer);
+        }
+
+        instance = null;
+    }
+
+
+    /**
+     * Get MD5 checksum of a file. Returns cached value if file size and
+     * modification time didn't change. Otherwise calculates the checksum
+     * and updates the cache.
+     * @param file a file
+     * @return MD5 checksum as a lower case hex string
+     * @throws Exception an exception
+     */
+    public String getMd5(File file) throws Exception
+    {
+        String path = file.getCanonicalPath();
+        BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attr.size();
+        long mtime = attr.lastModifiedTime().toMillis();
+
+        String md5 = get(path, size, mtime);
+        if(md5 != null) return md5;
+
+        // Calculate checksum outside of the lock. It could take a long time for big files.
+        md5 = Md5Utils.md5Hex(file);
+        put(path, size, mtime, md5);
+
+        return md5;
+    }
+
+
+    private synchronized String get(String path, long size, long mtime)
+    {
+        CacheEntry entry = index.get(path);
+        if(entry != null && entry.size == size && entry.mtime == mtime)
+        {
+            index.hit();
+            return entry.md5;
+        }
+
+        index.miss();
+        return null;
+    }
+
+
+    private synchronized void put(String path, long size, long mtime, String md5)
+    {
+        bytesHashed += size;
+        index.put(path, new CacheEntry(size, mtime, md5));
+
+        // Line separators in the path would break the log
+        if(path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) return;
+
+        try
+        {
+            writer.write(md5 + "\t" + size + "\t" + mtime + "\t" + path + "\n");
+            writer.flush();
+            logLines++;
+
+            if(logLines > MIN_COMPACT_LINES && logLines > 2L * index.size())
+            {
+                compact();
+            }
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not update checksum cache " + logFile + ". " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Load the log into in-memory index. Invalid (e.g., partially written) lines are ignored.
+     */
+    private void load() throws Exception
+    {
+        if(!Files.exists(logFile)) return;
+
+        try(BufferedReader rd = Files.newBufferedReader(logFile, StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = rd.readLine()) != null)
+            {
+                logLines++;
+
+                String[] tokens = line.split("\t", 4);
+                if(tokens.length != 4) continue;
+
+                try
+                {
+                    long size = Long.parseLong(tokens[1]);
+                    long mtime = Long.parseLong(tokens[2]);
+                    index.put(tokens[3], new CacheEntry(size, mtime, tokens[0]));
+                }
+                catch(NumberFormatException ex)
+                {
+                    // Ignore invalid line
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Rewrite the log from in-memory index to drop overridden and evicted entries.
+     */
+    private void compact() throws Exception
+    {
+        CloseUtils.close(writer);
+
+        try
+        {
+            Path tmpFile = logFile.resolveSibling(LOG_FILE_NAME + ".tmp");
+            try(BufferedWriter wr = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8))
+            {
+                for(Map.Entry<String, CacheEntry> item: index.entrySet())
+                {
+                    CacheEntry entry = item.getValue();
+                    wr.write(entry.md5 + "\t" + entry.size + "\t" + entry.mtime + "\t" + item.getKey() + "\n");
+                }
+            }
+
+            Files.move(tmpFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logLines = index.size();
+            compactions++;
+        }
+        finally
+        {
+            // Keep appending to the old log if compaction failed
+            writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+
+    private synchronized Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        index.addStats(stats);
+        stats.put("compactions", compactions);
+        stats.put("bytesHashed", bytesHashed);
+
+        return stats;
+    }
+}
@@ -0,0 +1,146 @@
+package gov.nasa.pds.harvest.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+
+
+/**
+ * A singleton in-memory cache of product IDs (LIDVIDs) known to exist in the registry:
+ * products loaded by this process and products confirmed to exist by Elasticsearch.
+ * <p>
+ * Crawlers often re-send overlapping batches. Only LIDVIDs not in the cache
+ * are checked in Elasticsearch. The cache is bounded (least recently used entries
+ * are evicted), and entries expire after a time-to-live, so products deleted
+ * from the registry by other tools are eventually re-harvested.
+ * </p>
+ */
+public class LidvidCache
+{
+    // Singleton
+    private static LidvidCache instance = null;
+
+    private Logger log;
+    private long ttlMs;
+
+    // LIDVID -> time added (ms)
+    private LruMap<String, Long> index;
+
+    // Statistics
+    private long expirations;
+
+
+    /**
+     * Private constructor. Use init() and getInstance() instead.
+     * @param maxEntries max number of LIDVIDs in the cache
+     * @param ttlSec time-to-live of an entry in seconds
+     */
+    private LidvidCache(int maxEntries, int ttlSec)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.ttlMs = ttlSec * 1000L;
+
+        index = new LruMap<>(maxEntries);
+
+        log.info("LIDVID cache: max entries: " + maxEntries + ", TTL: " + ttlSec + " sec");
+        StatsRegistry.register("lidvidCache", this::getStats);
+    }
+
+
+    /**
+     * Initialize the singleton.
+     * @param maxEntries max number of LIDVIDs in the cache
+     * @param ttlSec time-to-live of an entry in seconds
+     */
+    public static void init(int maxEntries, int ttlSec)
+    {
+        instance = new LidvidCache(maxEntries, ttlSec);
+    }
+
+
+    /**
+     * Get the singleton instance.
+     * @return LIDVID cache singleton or null if the cache is disabled.
+     */
+    public static LidvidCache getInstance()
+    {
+        return instance;
+    }
+
+
+    /**
+     * Release the singleton.
+     */
+    public static void destroy()
+    {
+        instance = null;
+    }
+
+
+    /**
+     * Get LIDVIDs not in the cache. These LIDVIDs have to be checked in Elasticsearch.
+     * @param lidvids LIDVIDs to check
+     * @return LIDVIDs not in the cache (could be empty)
+     */
+    public synchronized List<String> getUnknownIds(Collection<String> lidvids)
+    {
+        List<String> unknownIds = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for(String lidvid: lidvids)
+        {
+            Long timeAdded = index.get(lidvid);
+            if(timeAdded != null && now - timeAdded > ttlMs)
+            {
+                index.remove(lidvid);
+                expirations++;
+                timeAdded = null;
+            }
+
+            if(timeAdded != null)
+            {
+                index.hit();
+            }
+            else
+            {
+                index.miss();
+                unknownIds.add(lidvid);
+            }
+        }
+
+        return unknownIds;
+    }
+
+
+    /**
+     * Add LIDVIDs of registered products
+     * @param lidvids LIDVIDs loaded into the registry or confirmed to exist
+     */
+    public synchronized void addAll(Collection<String> lidvids)
+    {
+        long now = System.currentTimeMillis();
+
+        for(String lidvid: lidvids)
+        {
+            if(lidvid != null) index.put(lidvid, now);
+        }
+    }
+
+
+    private synchronized Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        index.addStats(stats);
+        stats.put("ttlSec", ttlMs / 1000);
+        stats.put("expirations", expirations);
+
+        return stats;
+    }
+}
@@ -0,0 +1,431 @@
+package gov.nasa.pds.harvest.cache;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.dao.RegistryDao;
+import gov.nasa.pds.harvest.dao.RegistryManager;
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * A singleton off-heap index of all registered product IDs (LIDVIDs).
+ * <p>
+ * The index is an open-addressing (linear probing) hash table of 64-bit LIDVID hashes
+ * stored in a memory-mapped temporary file, so tens of millions of LIDVIDs don't use Java heap.
+ * It is built in background at startup by scrolling through the registry index,
+ * is updated with products loaded by this server, and is rebuilt from scratch every 
+ * "refreshSec" seconds to reconcile it with Elasticsearch.
+ * </p>
+ * <p>
+ * If a LIDVID is not in the index, the product is considered not registered,
+ * and Elasticsearch is not called. If a LIDVID is in the index, the product is most likely
+ * registered, but it has to be confirmed in Elasticsearch (hash collisions, deleted products).
+ * Products registered by other harvest servers are not in the index until the next rebuild
+ * and are re-harvested (documents are overwritten). While the index is being (re)built,
+ * all LIDVIDs are checked in Elasticsearch.
+ * </p>
+ */
+public class LidvidIndex
+{
+    // One memory-mapped buffer can't be bigger than 2GB
+    private static final int MAX_CAPACITY = 1 << 27;
+    private static final int MIN_CAPACITY = 1 << 20;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final int SCROLL_PAGE_SIZE = 10_000;
+
+    // Singleton
+    private static LidvidIndex instance = null;
+
+    private Logger log;
+    private Path dir;
+    private ScheduledExecutorService builder;
+
+    // Hash table. 0 - empty slot.
+    private FileChannel channel;
+    private LongBuffer slots;
+    private int capacity;
+    private int mask;
+    private int size;
+
+    // The index can be used after it is built
+    private volatile boolean ready;
+    // Too many products. The index is disabled.
+    private boolean full;
+
+    // Statistics
+    private long builds;
+    private long buildTimeMs;
+    private long lookups;
+    private long negatives;
+    private long falsePositives;
+
+
+    /**
+     * Private constructor. Use init() and getInstance() instead.
+     * @param dir directory of the memory-mapped file
+     * @throws Exception an exception
+     */
+    private LidvidIndex(String dir) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.dir = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(this.dir);
+
+        builder = Executors.newSingleThreadScheduledExecutor((r) ->
+        {
+            Thread thread = new Thread(r, "lidvid-index-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        StatsRegistry.register("lidvidIndex", this::getStats);
+    }
+
+
+    /**
+     * Initialize the singleton and start building the index in background.
+     * Call after the registry manager is initialized.
+     * @param dir directory of the memory-mapped file
+     * @param refreshSec time in seconds between rebuilds of the index. 0 - build only once.
+     * @throws Exception an exception
+     */
+    public static void init(String dir, int refreshSec) throws Exception
+    {
+        instance = new LidvidIndex(dir);
+
+        if(refreshSec > 0)
+        {
+            instance.builder.scheduleWithFixedDelay(instance::build, 0, refreshSec, TimeUnit.SECONDS);
+        }
+        else
+        {
+            instance.builder.execute(instance::build);
+        }
+    }
+
+
+    /**
+     * Get the singleton instance.
+     * @return LIDVID index singleton or null if the index is disabled.
+     */
+    public static LidvidIndex getInstance()
+    {
+        return instance;
+    }
+
+
+    /**
+     * Release the memory-mapped file.
+     */
+    public static void destroy()
+    {
+        if(instance == null) return;
+
+        instance.builder.shutdownNow();
+
+        synchronized(instance)
+        {
+            instance.ready = false;
+            instance.closeChannel();
+        }
+
+        instance = null;
+    }
+
+
+    /**
+     * Check if the index is built and can be used.
+     * @return true if the index can be used
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+
+    /**
+     * Check if a product could be registered.
+     * @param lidvid product ID
+     * @return false if the product is not registered.
+     * True if the product is most likely registered or the index is being rebuilt
+     * (has to be confirmed in Elasticsearch).
+     */
+    public synchronized boolean mightContain(String lidvid)
+    {
+        lookups++;
+        if(!ready) return true;
+
+        long hash = hash(lidvid);
+        int idx = (int)hash & mask;
+
+        while(true)
+        {
+            long slot = slots.get(idx);
+            if(slot == hash) return true;
+            if(slot == 0)
+            {
+                negatives++;
+                return false;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+
+    /**
+     * Add LIDVIDs of registered products
+     * @param lidvids LIDVIDs loaded into the registry
+     */
+    public synchronized void addAll(Collection<String> lidvids)
+    {
+        for(String lidvid: lidvids)
+        {
+            if(lidvid != null) add(lidvid);
+        }
+    }
+
+
+    /**
+     * Report products found in the index but not in Elasticsearch
+     * (hash collisions or deleted products).
+     * @param count number of false positives
+     */
+    public synchronized void addFalsePositives(int count)
+    {
+        falsePositives += count;
+    }
+
+
+    private void add(String lidvid)
+    {
+        // Not allocated yet or disabled
+        if(full || channel == null) return;
+
+        if(size + 1 > capacity * MAX_LOAD_FACTOR)
+        {
+            if(capacity >= MAX_CAPACITY)
+            {
+                log.warn("Too many products (" + size + "). LIDVID index is disabled.");
+                full = true;
+                ready = false;
+                return;
+            }
+
+            try
+            {
+                resize(capacity * 2);
+            }
+            catch(Exception ex)
+            {
+                log.error("Could not resize LIDVID index. The index is disabled. " + ExceptionUtils.getMessage(ex));
+                full = true;
+                ready = false;
+                return;
+            }
+        }
+
+        insert(hash(lidvid));
+    }
+
+
+    private void insert(long hash)
+    {
+        int idx = (int)hash & mask;
+
+        while(true)
+        {
+            long slot = slots.get(idx);
+            if(slot == hash) return;
+            if(slot == 0)
+            {
+                slots.put(idx, hash);
+                size++;
+                return;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+    }
+
+
+    /**
+     * Build the index from all product IDs of the registry index.
+     * The index is not used until the build is completed.
+     */
+    private void build()
+    {
+        log.info("Building LIDVID index");
+        long startTime = System.currentTimeMillis();
+
+        try
+        {
+            // Start from scratch. Products loaded while the index is being built are added to the new table.
+            synchronized(this)
+            {
+                ready = false;
+                full = false;
+                closeChannel();
+                allocate(MIN_CAPACITY);
+            }
+            
+
+            // Restarting the scroll after a transient error is safe. Duplicate IDs are ignored.
+            RegistryDao dao = RegistryManager.getInstance().getRegistryDao();
+            Consumer<String> callback = (lidvid) ->
+            {
+                synchronized(this)
+                {
+                    add(lidvid);
+                }
+            };
+            long count = RegistryManager.getInstance().getCallPolicy().call("_search/scroll", 
+                    () -> dao.scrollIds(SCROLL_PAGE_SIZE, callback));
+
+            synchronized(this)
+            {
+                builds++;
+                buildTimeMs = System.currentTimeMillis() - startTime;
+                ready = !full && channel != null;
+            }
+
+            log.info("LIDVID index is ready. Products: " + count + ", time: " + buildTimeMs + " ms");
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not build LIDVID index. The index is not used until it is rebuilt. " 
+                    + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Create a bigger hash table and re-insert all hashes
+     */
+    private void resize(int newCapacity) throws Exception
+    {
+        FileChannel oldChannel = channel;
+        LongBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+
+        allocate(newCapacity);
+
+        for(int i = 0; i < oldCapacity; i++)
+        {
+            long hash = oldSlots.get(i);
+            if(hash != 0) insert(hash);
+        }
+
+        try
+        {
+            oldChannel.close();
+        }
+        catch(IOException ex)
+        {
+            // Ignore
+        }
+    }
+
+
+    /**
+     * Create an empty memory-mapped hash table
+     */
+    private void allocate(int newCapacity) throws Exception
+    {
+        Path file = Files.createTempFile(dir, "lidvids-", ".idx");
+        FileChannel newChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+
+        // On POSIX systems, an open (and mapped) file can be unlinked right away.
+        // Then nothing is left behind even if the process is killed.
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch(IOException ex)
+        {
+            // Windows. The file is deleted on close.
+        }
+
+        // New file is filled with zeros (empty slots)
+        slots = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long)newCapacity * Long.BYTES).asLongBuffer();
+        channel = newChannel;
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        size = 0;
+    }
+
+
+    private void closeChannel()
+    {
+        if(channel == null) return;
+
+        try
+        {
+            channel.close();
+        }
+        catch(IOException ex)
+        {
+            // Ignore
+        }
+
+        channel = null;
+    }
+
+
+    /**
+     * 64-bit hash of a LIDVID (FNV-1a with MurmurHash3 finalizer). Never returns 0.
+     */
+    private static long hash(String lidvid)
+    {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < lidvid.length(); i++)
+        {
+            h ^= lidvid.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h == 0 ? 1 : h;
+    }
+
+
+    private synchronized Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("entries", size);
+        stats.put("capacity", capacity);
+        stats.put("fileBytes", (long)capacity * Long.BYTES);
+        stats.put("builds", builds);
+        stats.put("buildTimeMs", buildTimeMs);
+        stats.put("lookups", lookups);
+        stats.put("negatives", negatives);
+        stats.put("falsePositives", falsePositives);
+
+        return stats;
+    }
+}
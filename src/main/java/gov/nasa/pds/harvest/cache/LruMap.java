@@ -0,0 +1,95 @@
+package gov.nasa.pds.harvest.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded access-ordered map. Least recently used entries are evicted
+ * when the map grows bigger than max entries. Also keeps hit / miss
+ * statistics reported by the caller.
+ * <p>
+ * This class is not thread-safe. Callers have to synchronize access.
+ * </p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruMap<K, V> extends LinkedHashMap<K, V>
+{
+    private static final long serialVersionUID = 1L;
+
+    private int maxEntries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    /**
+     * Constructor
+     * @param maxEntries max number of entries in the map
+     */
+    public LruMap(int maxEntries)
+    {
+        super(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+    {
+        if(size() > maxEntries)
+        {
+            evictions++;
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Count a cache hit.
+     */
+    public void hit()
+    {
+        hits++;
+    }
+
+
+    /**
+     * Count a cache miss.
+     */
+    public void miss()
+    {
+        misses++;
+    }
+
+
+    /**
+     * Reset eviction counter, e.g., after loading the map from disk.
+     */
+    public void resetEvictions()
+    {
+        evictions = 0;
+    }
+
+
+    /**
+     * Add size, hit rate and eviction statistics to a stats map.
+     * @param stats statistics map
+     */
+    public void addStats(Map<String, Object> stats)
+    {
+        stats.put("entries", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+
+        long total = hits + misses;
+        stats.put("hitRate", total == 0 ? 0 : (double)hits / total);
+        stats.put("evictions", evictions);
+    }
+}
@@ -23,6 +23,11 @@ public class Configuration
      */
     public RabbitMQCfg rmqCfg = new RabbitMQCfg();
 
+    /**
+     * Spool directory configuration
+     */
+    public SpoolCfg spoolCfg = new SpoolCfg();
+
     /**
      * Embedded web server port
      */
@@ -33,6 +38,11 @@ public class Configuration
      */
     public RegistryCfg registryCfg = new RegistryCfg();
     
+    /**
+     * Elasticsearch HTTP client configuration
+     */
+    public EsClientCfg esClientCfg = new EsClientCfg();
+    
 
     /**
      * Harvest configuration
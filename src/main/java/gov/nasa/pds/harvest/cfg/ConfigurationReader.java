@@ -24,6 +24,10 @@ public class ConfigurationReader
     private static final String PROP_RMQ_HOST = "rmq.host";
     private static final String PROP_RMQ_USER = "rmq.user";
     private static final String PROP_RMQ_PASS = "rmq.password";
+    private static final String PROP_RMQ_PREFETCH = "rmq.prefetch";
+    private static final String PROP_RMQ_RETRY_MAX = "rmq.retry.max";
+    private static final String PROP_RMQ_RETRY_DELAY_MS = "rmq.retry.delayMs";
+    private static final String PROP_RMQ_RETRY_MAX_DELAY_MS = "rmq.retry.maxDelayMs";
     private static final IPAddress DEFAULT_RMQ_HOST = new IPAddress("localhost", 5672);
 
     // ActiveMQ
@@ -32,6 +36,9 @@ public class ConfigurationReader
     private static final String PROP_AMQ_PASS = "amq.password";
     private static final String DEFAULT_AMQ_URL = "tcp://localhost:61616";
 
+    // Spool directory
+    private static final String PROP_SPOOL_DIR = "spool.dir";
+
     // Embedded web server
     private static final String PROP_WEB_PORT = "web.port";
     private static final int DEFAULT_WEB_PORT = 8005;
@@ -40,11 +47,48 @@ public class ConfigurationReader
     private static final String PROP_ES_URL = "es.url";
     private static final String PROP_ES_INDEX = "es.index";
     private static final String PROP_ES_AUTH = "es.authFile";
+    private static final String PROP_ES_GZIP = "es.gzip";
+    private static final String PROP_ES_MAX_CONNECTIONS = "es.pool.maxConnections";
+    private static final String PROP_ES_MAX_CONNECTIONS_PER_NODE = "es.pool.maxConnectionsPerNode";
+    private static final String PROP_ES_KEEP_ALIVE_SEC = "es.keepAliveSec";
+    private static final String PROP_ES_CONNECT_TIMEOUT_SEC = "es.connectTimeoutSec";
+    private static final String PROP_ES_SOCKET_TIMEOUT_SEC = "es.socketTimeoutSec";
+    private static final String PROP_ES_SNIFF_INTERVAL_SEC = "es.sniff.intervalSec";
+    private static final String PROP_ES_NODE_BLACKLIST_SEC = "es.node.blacklistSec";
     
     // Harvest
     private static final String PROP_HARVEST_STORE_LABELS = "harvest.storeLabels";
     private static final String PROP_HARVEST_STORE_JSON_LABELS = "harvest.storeJsonLabels";
     private static final String PROP_HARVEST_PROCESS_DATA_FILES = "harvest.processDataFiles";
+    private static final String PROP_HARVEST_OVERWRITE_CHANGED_ONLY = "harvest.overwrite.changedOnly";
+    private static final String PROP_HARVEST_CHECKSUM_CACHE_DIR = "harvest.checksumCache.dir";
+    private static final String PROP_HARVEST_CHECKSUM_CACHE_MAX_ENTRIES = "harvest.checksumCache.maxEntries";
+    private static final String PROP_HARVEST_LIDVID_CACHE_MAX_ENTRIES = "harvest.lidvidCache.maxEntries";
+    private static final String PROP_HARVEST_LIDVID_CACHE_TTL_SEC = "harvest.lidvidCache.ttlSec";
+    private static final String PROP_HARVEST_LIDVID_INDEX_DIR = "harvest.lidvidIndex.dir";
+    private static final String PROP_HARVEST_LIDVID_INDEX_REFRESH_SEC = "harvest.lidvidIndex.refreshSec";
+    private static final String PROP_HARVEST_LOOKUP_CHUNK_SIZE = "harvest.lookup.chunkSize";
+    private static final String PROP_HARVEST_LOOKUP_CONCURRENCY = "harvest.lookup.concurrency";
+    private static final String PROP_HARVEST_ES_MAX_RETRIES = "harvest.es.maxRetries";
+    private static final String PROP_HARVEST_ES_BREAKER_FAILURES = "harvest.es.breaker.failures";
+    private static final String PROP_HARVEST_ES_BREAKER_OPEN_SEC = "harvest.es.breaker.openSec";
+    private static final String PROP_HARVEST_XML_PARSER_FACTORY = "harvest.xml.parserFactory";
+    private static final String PROP_HARVEST_LARGE_LABEL_THRESHOLD = "harvest.largeLabelThreshold";
+    private static final String PROP_HARVEST_PRUNE_LARGE_LABELS = "harvest.pruneLargeLabels";
+    private static final String PROP_HARVEST_CONSUMERS = "harvest.consumers";
+    private static final String PROP_HARVEST_BULK_CONSUMERS = "harvest.bulkConsumers";
+    private static final String PROP_HARVEST_PROCESS_THREADS = "harvest.processThreads";
+    private static final String PROP_HARVEST_PIPELINE = "harvest.pipeline";
+    private static final String PROP_HARVEST_BATCH_MAX_DOCS = "harvest.batch.maxDocs";
+    private static final String PROP_HARVEST_BATCH_MAX_BYTES = "harvest.batch.maxBytes";
+    private static final String PROP_HARVEST_BATCH_LINGER_MS = "harvest.batch.lingerMs";
+    private static final String PROP_HARVEST_BULK_SPILL_THRESHOLD = "harvest.bulk.spillThreshold";
+    private static final String PROP_HARVEST_BULK_MAX_DOCS = "harvest.bulk.maxDocs";
+    private static final String PROP_HARVEST_BULK_MAX_BYTES = "harvest.bulk.maxBytes";
+    private static final String PROP_HARVEST_BULK_CONCURRENCY = "harvest.bulk.concurrency";
+    private static final String PROP_HARVEST_ADAPTIVE = "harvest.adaptive";
+    private static final String PROP_HARVEST_ADAPTIVE_MAX_LIMIT = "harvest.adaptive.maxLimit";
+    private static final String PROP_HARVEST_DRAIN_TIMEOUT_SEC = "harvest.drainTimeoutSec";
         
     private Logger log;
 
@@ -93,6 +137,11 @@ public class ConfigurationReader
             break;
         case RabbitMQ:
             validateRMQ(cfg.rmqCfg);
+            validatePipeline(cfg);
+            validateAdaptive(cfg);
+            break;
+        case Spool:
+            validateSpool(cfg.spoolCfg);
             break;
         }
         
@@ -125,6 +174,46 @@ public class ConfigurationReader
                     PROP_RMQ_HOST, DEFAULT_RMQ_HOST.toString());
             log.warn(msg);
         }
+        
+        // Validate retry delays
+        if(cfg.retryMaxDelayMs < cfg.retryDelayMs)
+        {
+            cfg.retryMaxDelayMs = cfg.retryDelayMs;
+            String msg = String.format("'%s' is less than '%s'. Will use %d", 
+                    PROP_RMQ_RETRY_MAX_DELAY_MS, PROP_RMQ_RETRY_DELAY_MS, cfg.retryMaxDelayMs);
+            log.warn(msg);
+        }
+    }
+
+    
+    private void validatePipeline(Configuration cfg)
+    {
+        if(!cfg.harvestCfg.pipeline && cfg.harvestCfg.batchMaxDocs > 0)
+        {
+            String msg = String.format("'%s' requires '%s' = true. Batching is disabled.", 
+                    PROP_HARVEST_BATCH_MAX_DOCS, PROP_HARVEST_PIPELINE);
+            log.warn(msg);
+        }
+        
+        if(cfg.harvestCfg.pipeline && cfg.rmqCfg.prefetch < 2)
+        {
+            cfg.rmqCfg.prefetch = 2;
+            String msg = String.format("'%s' requires '%s' greater than 1. Will use %d", 
+                    PROP_HARVEST_PIPELINE, PROP_RMQ_PREFETCH, cfg.rmqCfg.prefetch);
+            log.warn(msg);
+        }
+    }
+
+    
+    private void validateAdaptive(Configuration cfg)
+    {
+        if(cfg.harvestCfg.adaptive && cfg.harvestCfg.adaptiveMaxLimit < cfg.rmqCfg.prefetch)
+        {
+            cfg.harvestCfg.adaptiveMaxLimit = cfg.rmqCfg.prefetch;
+            String msg = String.format("'%s' is less than '%s'. Will use %d", 
+                    PROP_HARVEST_ADAPTIVE_MAX_LIMIT, PROP_RMQ_PREFETCH, cfg.harvestCfg.adaptiveMaxLimit);
+            log.warn(msg);
+        }
     }
 
     
@@ -140,6 +229,16 @@ public class ConfigurationReader
     }
 
     
+    private void validateSpool(SpoolCfg cfg) throws Exception
+    {
+        if(cfg.dir == null || cfg.dir.isBlank())
+        {
+            String msg = String.format("Invalid configuration. Property '%s' is not set.", PROP_SPOOL_DIR);
+            throw new Exception(msg);
+        }
+    }
+
+    
     private void validateRegistry(RegistryCfg cfg)
     {
         if(cfg.url == null)
@@ -202,6 +301,18 @@ public class ConfigurationReader
                 case PROP_RMQ_PASS:
                     cfg.rmqCfg.password = value;
                     break;
+                case PROP_RMQ_PREFETCH:
+                    cfg.rmqCfg.prefetch = parseInt(PROP_RMQ_PREFETCH, value, 1);
+                    break;
+                case PROP_RMQ_RETRY_MAX:
+                    cfg.rmqCfg.retryMax = parseInt(PROP_RMQ_RETRY_MAX, value, 0);
+                    break;
+                case PROP_RMQ_RETRY_DELAY_MS:
+                    cfg.rmqCfg.retryDelayMs = parseInt(PROP_RMQ_RETRY_DELAY_MS, value, 1);
+                    break;
+                case PROP_RMQ_RETRY_MAX_DELAY_MS:
+                    cfg.rmqCfg.retryMaxDelayMs = parseInt(PROP_RMQ_RETRY_MAX_DELAY_MS, value, 1);
+                    break;
 
                 // ActiveMQ
                 case PROP_AMQ_URL:
@@ -213,10 +324,15 @@ public class ConfigurationReader
                 case PROP_AMQ_PASS:
                     cfg.amqCfg.password = value;
                     break;
+
+                // Spool directory
+                case PROP_SPOOL_DIR:
+                    cfg.spoolCfg.dir = value;
+                    break;
                     
                 // Registry / Elasticsearch
                 case PROP_ES_URL:
-                    cfg.registryCfg.url = value;
+                    parseEsUrls(cfg, value);
                     break;
                 case PROP_ES_INDEX:
                     cfg.registryCfg.indexName = value;
@@ -224,6 +340,30 @@ public class ConfigurationReader
                 case PROP_ES_AUTH:
                     cfg.registryCfg.authFile = value;
                     break;
+                case PROP_ES_GZIP:
+                    cfg.esClientCfg.gzip = parseBoolean(PROP_ES_GZIP, value, false);
+                    break;
+                case PROP_ES_MAX_CONNECTIONS:
+                    cfg.esClientCfg.maxConnections = parseInt(PROP_ES_MAX_CONNECTIONS, value, 1);
+                    break;
+                case PROP_ES_MAX_CONNECTIONS_PER_NODE:
+                    cfg.esClientCfg.maxConnectionsPerNode = parseInt(PROP_ES_MAX_CONNECTIONS_PER_NODE, value, 1);
+                    break;
+                case PROP_ES_KEEP_ALIVE_SEC:
+                    cfg.esClientCfg.keepAliveSec = parseInt(PROP_ES_KEEP_ALIVE_SEC, value, 1);
+                    break;
+                case PROP_ES_CONNECT_TIMEOUT_SEC:
+                    cfg.esClientCfg.connectTimeoutSec = parseInt(PROP_ES_CONNECT_TIMEOUT_SEC, value, 1);
+                    break;
+                case PROP_ES_SOCKET_TIMEOUT_SEC:
+                    cfg.esClientCfg.socketTimeoutSec = parseInt(PROP_ES_SOCKET_TIMEOUT_SEC, value, 1);
+                    break;
+                case PROP_ES_SNIFF_INTERVAL_SEC:
+                    cfg.esClientCfg.sniffIntervalSec = parseInt(PROP_ES_SNIFF_INTERVAL_SEC, value, 0);
+                    break;
+                case PROP_ES_NODE_BLACKLIST_SEC:
+                    cfg.esClientCfg.nodeBlacklistSec = parseInt(PROP_ES_NODE_BLACKLIST_SEC, value, 1);
+                    break;
                     
                 // Harvest
                 case PROP_HARVEST_PROCESS_DATA_FILES:
@@ -235,6 +375,93 @@ public class ConfigurationReader
                 case PROP_HARVEST_STORE_LABELS:
                     cfg.harvestCfg.storeLabels = parseBoolean(PROP_HARVEST_STORE_LABELS, value, true);
                     break;
+                case PROP_HARVEST_OVERWRITE_CHANGED_ONLY:
+                    cfg.harvestCfg.overwriteChangedOnly = parseBoolean(PROP_HARVEST_OVERWRITE_CHANGED_ONLY, value, false);
+                    break;
+                case PROP_HARVEST_CHECKSUM_CACHE_DIR:
+                    cfg.harvestCfg.checksumCacheDir = value;
+                    break;
+                case PROP_HARVEST_CHECKSUM_CACHE_MAX_ENTRIES:
+                    cfg.harvestCfg.checksumCacheMaxEntries = parseInt(PROP_HARVEST_CHECKSUM_CACHE_MAX_ENTRIES, value, 1);
+                    break;
+                case PROP_HARVEST_LIDVID_CACHE_MAX_ENTRIES:
+                    cfg.harvestCfg.lidvidCacheMaxEntries = parseInt(PROP_HARVEST_LIDVID_CACHE_MAX_ENTRIES, value, 0);
+                    break;
+                case PROP_HARVEST_LIDVID_CACHE_TTL_SEC:
+                    cfg.harvestCfg.lidvidCacheTtlSec = parseInt(PROP_HARVEST_LIDVID_CACHE_TTL_SEC, value, 1);
+                    break;
+                case PROP_HARVEST_LIDVID_INDEX_DIR:
+                    cfg.harvestCfg.lidvidIndexDir = value;
+                    break;
+                case PROP_HARVEST_LIDVID_INDEX_REFRESH_SEC:
+                    cfg.harvestCfg.lidvidIndexRefreshSec = parseInt(PROP_HARVEST_LIDVID_INDEX_REFRESH_SEC, value, 0);
+                    break;
+                case PROP_HARVEST_LOOKUP_CHUNK_SIZE:
+                    cfg.harvestCfg.lookupChunkSize = parseInt(PROP_HARVEST_LOOKUP_CHUNK_SIZE, value, 1);
+                    break;
+                case PROP_HARVEST_LOOKUP_CONCURRENCY:
+                    cfg.harvestCfg.lookupConcurrency = parseInt(PROP_HARVEST_LOOKUP_CONCURRENCY, value, 1);
+                    break;
+                case PROP_HARVEST_ES_MAX_RETRIES:
+                    cfg.harvestCfg.esMaxRetries = parseInt(PROP_HARVEST_ES_MAX_RETRIES, value, 0);
+                    break;
+                case PROP_HARVEST_ES_BREAKER_FAILURES:
+                    cfg.harvestCfg.esBreakerFailures = parseInt(PROP_HARVEST_ES_BREAKER_FAILURES, value, 1);
+                    break;
+                case PROP_HARVEST_ES_BREAKER_OPEN_SEC:
+                    cfg.harvestCfg.esBreakerOpenSec = parseInt(PROP_HARVEST_ES_BREAKER_OPEN_SEC, value, 1);
+                    break;
+                case PROP_HARVEST_XML_PARSER_FACTORY:
+                    cfg.harvestCfg.xmlParserFactory = value;
+                    break;
+                case PROP_HARVEST_LARGE_LABEL_THRESHOLD:
+                    cfg.harvestCfg.largeLabelThreshold = parseInt(PROP_HARVEST_LARGE_LABEL_THRESHOLD, value, 0);
+                    break;
+                case PROP_HARVEST_PRUNE_LARGE_LABELS:
+                    cfg.harvestCfg.pruneLargeLabels = parseBoolean(PROP_HARVEST_PRUNE_LARGE_LABELS, value, false);
+                    break;
+                case PROP_HARVEST_CONSUMERS:
+                    cfg.harvestCfg.productConsumers = parseInt(PROP_HARVEST_CONSUMERS, value, 1);
+                    break;
+                case PROP_HARVEST_BULK_CONSUMERS:
+                    cfg.harvestCfg.bulkConsumers = parseInt(PROP_HARVEST_BULK_CONSUMERS, value, 0);
+                    break;
+                case PROP_HARVEST_PROCESS_THREADS:
+                    cfg.harvestCfg.processThreads = parseInt(PROP_HARVEST_PROCESS_THREADS, value, 1);
+                    break;
+                case PROP_HARVEST_PIPELINE:
+                    cfg.harvestCfg.pipeline = parseBoolean(PROP_HARVEST_PIPELINE, value, false);
+                    break;
+                case PROP_HARVEST_BATCH_MAX_DOCS:
+                    cfg.harvestCfg.batchMaxDocs = parseInt(PROP_HARVEST_BATCH_MAX_DOCS, value, 1);
+                    break;
+                case PROP_HARVEST_BATCH_MAX_BYTES:
+                    cfg.harvestCfg.batchMaxBytes = parseInt(PROP_HARVEST_BATCH_MAX_BYTES, value, 1);
+                    break;
+                case PROP_HARVEST_BATCH_LINGER_MS:
+                    cfg.harvestCfg.batchLingerMs = parseInt(PROP_HARVEST_BATCH_LINGER_MS, value, 1);
+                    break;
+                case PROP_HARVEST_BULK_SPILL_THRESHOLD:
+                    cfg.harvestCfg.bulkSpillThreshold = parseInt(PROP_HARVEST_BULK_SPILL_THRESHOLD, value, 0);
+                    break;
+                case PROP_HARVEST_BULK_MAX_DOCS:
+                    cfg.harvestCfg.bulkMaxDocs = parseInt(PROP_HARVEST_BULK_MAX_DOCS, value, 0);
+                    break;
+                case PROP_HARVEST_BULK_MAX_BYTES:
+                    cfg.harvestCfg.bulkMaxBytes = parseInt(PROP_HARVEST_BULK_MAX_BYTES, value, 0);
+                    break;
+                case PROP_HARVEST_BULK_CONCURRENCY:
+                    cfg.harvestCfg.bulkConcurrency = parseInt(PROP_HARVEST_BULK_CONCURRENCY, value, 1);
+                    break;
+                case PROP_HARVEST_ADAPTIVE:
+                    cfg.harvestCfg.adaptive = parseBoolean(PROP_HARVEST_ADAPTIVE, value, false);
+                    break;
+                case PROP_HARVEST_ADAPTIVE_MAX_LIMIT:
+                    cfg.harvestCfg.adaptiveMaxLimit = parseInt(PROP_HARVEST_ADAPTIVE_MAX_LIMIT, value, 1);
+                    break;
+                case PROP_HARVEST_DRAIN_TIMEOUT_SEC:
+                    cfg.harvestCfg.drainTimeoutSec = parseInt(PROP_HARVEST_DRAIN_TIMEOUT_SEC, value, 0);
+                    break;
 
                 default:
                     throw new Exception("Invalid property '" + key + "'");
@@ -254,8 +481,9 @@ public class ConfigurationReader
     {
         if("ActiveMQ".equalsIgnoreCase(str)) return MQType.ActiveMQ;
         if("RabbitMQ".equalsIgnoreCase(str)) return MQType.RabbitMQ;
+        if("Spool".equalsIgnoreCase(str)) return MQType.Spool;
         
-        String msg = String.format("Invalid '%s' property value: '%s'. Expected 'ActiveMQ' or 'RabbitMQ'.", 
+        String msg = String.format("Invalid '%s' property value: '%s'. Expected 'ActiveMQ', 'RabbitMQ' or 'Spool'.", 
                 PROP_MQ_TYPE, str);
         throw new Exception(msg);
     }
@@ -275,6 +503,55 @@ public class ConfigurationReader
     }
     
     
+    /**
+     * Parse comma-separated list of Elasticsearch node URLs.
+     * The first URL is also passed to registry-common classes which support only one URL.
+     */
+    private void parseEsUrls(Configuration cfg, String value) throws Exception
+    {
+        cfg.esClientCfg.urls.clear();
+        
+        for(String url: value.split(","))
+        {
+            url = url.trim();
+            if(!url.isEmpty()) cfg.esClientCfg.urls.add(url);
+        }
+        
+        if(cfg.esClientCfg.urls.isEmpty())
+        {
+            String msg = String.format("Invalid '%s' property value: '%s'", PROP_ES_URL, value);
+            throw new Exception(msg);
+        }
+        
+        cfg.registryCfg.url = cfg.esClientCfg.urls.get(0);
+    }
+    
+    
+    private int parseInt(String property, String value, int minValue) throws Exception
+    {
+        int val = 0;
+        
+        try
+        {
+            val = Integer.parseInt(value);
+        }
+        catch(Exception ex)
+        {
+            String msg = String.format("Could not parse '%s' property: '%s'", property, value);
+            throw new Exception(msg);
+        }
+        
+        if(val < minValue)
+        {
+            String msg = String.format("Invalid '%s' property value: '%s'. Expected an integer >= %d.", 
+                    property, value, minValue);
+            throw new Exception(msg);
+        }
+        
+        return val;
+    }
+    
+    
     private IPAddress parseMQAddresses(String str) throws Exception
     {
         String[] tokens = str.split(":");
@@ -0,0 +1,60 @@
+package gov.nasa.pds.harvest.cfg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Elasticsearch HTTP client configuration. The client is shared by all
+ * Elasticsearch calls of the harvest server.
+ */
+public class EsClientCfg
+{
+    /**
+     * Elasticsearch node URLs. Requests are sent to nodes round-robin.
+     * If empty, registry URL is used.
+     */
+    public List<String> urls = new ArrayList<>();
+
+    /**
+     * Time in seconds between discoveries of cluster nodes. 0 - don't discover nodes.
+     */
+    public int sniffIntervalSec = 0;
+
+    /**
+     * Time in seconds to exclude failed or slow nodes from the rotation
+     */
+    public int nodeBlacklistSec = 30;
+
+    /**
+     * Compress request bodies (e.g., bulk requests with label BLOBs) with gzip
+     * and accept gzip compressed responses. Disabled by default: the REST client
+     * buffers the whole compressed request body in memory, including bulk bodies 
+     * spilled to disk (see HarvestCfg.bulkSpillThreshold).
+     */
+    public boolean gzip = false;
+
+    /**
+     * Max number of pooled HTTP connections to all Elasticsearch nodes
+     */
+    public int maxConnections = 50;
+
+    /**
+     * Max number of pooled HTTP connections to one Elasticsearch node
+     */
+    public int maxConnectionsPerNode = 20;
+
+    /**
+     * Max time in seconds to keep an idle connection open
+     */
+    public int keepAliveSec = 60;
+
+    /**
+     * Connection timeout in seconds
+     */
+    public int connectTimeoutSec = 5;
+
+    /**
+     * Socket (response) timeout in seconds. Big bulk requests could take a while.
+     */
+    public int socketTimeoutSec = 120;
+}
@@ -16,5 +16,178 @@ public class HarvestCfg
      * Process data files (referenced in PDS label's File section)
      */
     public boolean processDataFiles = true;
+    
+    /**
+     * Overwrite (re-harvest) messages: only process labels whose MD5 checksum
+     * differs from the checksum stored in the registry.
+     */
+    public boolean overwriteChangedOnly = false;
+    
+    /**
+     * Directory of persistent data file checksum cache.
+     * If not set, the cache is disabled.
+     */
+    public String checksumCacheDir;
+    
+    /**
+     * Max number of entries (data files) in the checksum cache.
+     * Least recently used entries are evicted.
+     */
+    public int checksumCacheMaxEntries = 500_000;
+    
+    /**
+     * Max number of registered product IDs (LIDVIDs) cached in memory.
+     * Only LIDVIDs not in the cache are checked in Elasticsearch. 0 - disabled.
+     */
+    public int lidvidCacheMaxEntries = 100_000;
+    
+    /**
+     * Time-to-live (in seconds) of a cached LIDVID
+     */
+    public int lidvidCacheTtlSec = 600;
+    
+    /**
+     * Directory of memory-mapped (off-heap) index of all registered LIDVIDs.
+     * If not set, the index is disabled.
+     */
+    public String lidvidIndexDir;
+    
+    /**
+     * Time in seconds between rebuilds of the LIDVID index (reconciliation with Elasticsearch).
+     * 0 - build the index only at startup.
+     */
+    public int lidvidIndexRefreshSec = 3600;
+    
+    /**
+     * Max number of product IDs in one Elasticsearch lookup (_mget) request.
+     * Bigger ID sets (e.g., of a product message) are split into several requests.
+     */
+    public int lookupChunkSize = 500;
+    
+    /**
+     * Max number of lookup requests of one ID set sent to Elasticsearch at the same time.
+     */
+    public int lookupConcurrency = 4;
+    
+    /**
+     * Max number of retries of an Elasticsearch call failed with a transient error
+     * (connection error, timeout, HTTP 429, 502, 503, 504).
+     */
+    public int esMaxRetries = 3;
+    
+    /**
+     * Number of consecutive transient Elasticsearch errors to open the circuit breaker
+     * (pause message consumption).
+     */
+    public int esBreakerFailures = 5;
+    
+    /**
+     * Time in seconds between Elasticsearch availability checks while the circuit breaker is open.
+     */
+    public int esBreakerOpenSec = 30;
+    
+    /**
+     * DOM parser (DocumentBuilderFactory) implementation class name.
+     * If not set, default JDK implementation is used.
+     */
+    public String xmlParserFactory;
+
+    /**
+     * Labels bigger than this size (in bytes) are not loaded into memory as a DOM.
+     * Such labels are skipped, or pruned if "pruneLargeLabels" is true. 
+     * 0 - no limit, all labels are processed the regular way.
+     */
+    public long largeLabelThreshold = 10_000_000;
+
+    /**
+     * If true, a pruned copy (without table record and field definitions) of a label 
+     * bigger than "largeLabelThreshold" is created by a streaming (StAX) parser 
+     * and processed instead of the label. If false, such labels are skipped.
+     */
+    public boolean pruneLargeLabels = false;
 
+    /**
+     * Number of concurrent product consumers. Each consumer has its own
+     * message queue channel, product processor and Elasticsearch data loader.
+     */
+    public int productConsumers = 1;
+    
+    /**
+     * Number of bulk lane product consumers. If greater than 0, overwrite (re-harvest)
+     * messages are moved from the main product queue to the bulk lane queue, 
+     * so that they don't delay registration of new products.
+     * 0 - disabled (all messages are processed by the main lane).
+     */
+    public int bulkConsumers = 0;
+    
+    /**
+     * Number of label files of one product message processed in parallel.
+     * Each product consumer has its own pool of threads.
+     * 1 - disabled (files are processed sequentially by consumer thread).
+     */
+    public int processThreads = 1;
+    
+    /**
+     * Pipelined product consumers. Parsing of the next message overlaps
+     * with loading of the previous message into Elasticsearch.
+     * Requires message queue prefetch greater than 1.
+     */
+    public boolean pipeline = false;
+    
+    /**
+     * Pipelined mode only. Combine documents from several messages of the same job 
+     * into one Elasticsearch bulk request of up to this number of documents.
+     * 0 - disabled (one bulk request per message).
+     */
+    public int batchMaxDocs = 0;
+    
+    /**
+     * Pipelined mode only. Max size (in bytes) of combined bulk request.
+     */
+    public long batchMaxBytes = 20_000_000;
+    
+    /**
+     * Pipelined mode only. Max time (in milliseconds) to wait for more messages
+     * before sending a combined bulk request.
+     */
+    public int batchLingerMs = 1000;
+    
+    /**
+     * Max size (in bytes) of in-memory documents of one bulk batch.
+     * Bigger batches are spilled to a temporary file.
+     */
+    public long bulkSpillThreshold = 16_000_000;
+    
+    /**
+     * Max number of documents in one Elasticsearch bulk request.
+     * Bigger batches are split into several requests. 0 - unlimited.
+     */
+    public int bulkMaxDocs = 1000;
+    
+    /**
+     * Max size (in bytes) of one Elasticsearch bulk request.
+     * Should be less than Elasticsearch "http.max_content_length". 0 - unlimited.
+     */
+    public long bulkMaxBytes = 10_000_000;
+    
+    /**
+     * Max number of bulk requests of one batch sent to Elasticsearch at the same time.
+     */
+    public int bulkConcurrency = 2;
+    
+    /**
+     * Adjust message queue prefetch and number of concurrent Elasticsearch 
+     * bulk loads at runtime based on bulk load latency and rejections.
+     */
+    public boolean adaptive = false;
+    
+    /**
+     * Adaptive mode only. Upper bound of prefetch / concurrent bulk loads.
+     */
+    public int adaptiveMaxLimit = 32;
+    
+    /**
+     * Max time (in seconds) to wait for messages being processed on shutdown.
+     */
+    public int drainTimeoutSec = 60;
 }
@@ -6,5 +6,5 @@ package gov.nasa.pds.harvest.cfg;
  */
 public enum MQType
 {
-    ActiveMQ, RabbitMQ
+    ActiveMQ, RabbitMQ, Spool
 }
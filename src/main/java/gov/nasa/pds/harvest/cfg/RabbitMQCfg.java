@@ -24,4 +24,24 @@ public class RabbitMQCfg
      */
     public String password;
 
+    /**
+     * Maximum number of unacknowledged messages delivered to a consumer channel
+     */
+    public int prefetch = 1;
+    
+    /**
+     * Max number of delayed retries of a failed message before moving it
+     * to the dead-letter queue. 0 - re-queue failed messages immediately.
+     */
+    public int retryMax = 5;
+    
+    /**
+     * Delay before the first retry in milliseconds. Doubles with each retry.
+     */
+    public int retryDelayMs = 10_000;
+    
+    /**
+     * Max delay between retries in milliseconds
+     */
+    public int retryMaxDelayMs = 600_000;
 }
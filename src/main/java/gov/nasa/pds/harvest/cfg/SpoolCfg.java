@@ -0,0 +1,13 @@
+package gov.nasa.pds.harvest.cfg;
+
+/**
+ * Spool directory configuration. Used when the crawler and Harvest 
+ * run on the same host without a message server.
+ */
+public class SpoolCfg
+{
+    /**
+     * Spool directory. Each queue is a subdirectory, e.g., "harvest.products".
+     */
+    public String dir;
+}
@@ -0,0 +1,267 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A buffer of Elasticsearch documents in NDJSON format (action line followed by source line).
+ * <p>
+ * Documents are kept in memory as UTF-8 bytes until the buffer reaches spill threshold.
+ * Then all documents are moved to a temporary file, and new documents are appended to the file.
+ * Heap usage of one buffer stays bounded no matter how many documents (or how big label BLOBs) it has.
+ * The temporary file is deleted when the buffer is closed.
+ * </p>
+ * Adding documents is not thread-safe. Reading documents (getDoc()) is thread-safe.
+ */
+public class BulkBuffer implements Closeable
+{
+    private long spillThreshold;
+
+    private int numDocs;
+    private long numBytes;
+
+    // In-memory documents
+    private List<byte[]> memDocs;
+
+    // Spilled documents
+    private Path spillFile;
+    private FileChannel channel;
+    private long[] offsets;
+
+
+    /**
+     * Constructor
+     * @param spillThreshold max size of in-memory documents in bytes.
+     * If this size is exceeded, documents are moved to a temporary file.
+     */
+    public BulkBuffer(long spillThreshold)
+    {
+        this.spillThreshold = spillThreshold;
+        memDocs = new ArrayList<>();
+    }
+
+
+    /**
+     * Add a document
+     * @param action action line, e.g., {"index":{"_id":"..."}}
+     * @param source source line (document JSON)
+     * @throws IOException an exception
+     */
+    public void add(String action, String source) throws IOException
+    {
+        add((action + "\n" + source + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Add documents in NDJSON format (action line followed by source line),
+     * e.g., RegistryDocWriter data.
+     * @param lines action and source lines
+     * @throws IOException an exception
+     */
+    public void addAll(List<String> lines) throws IOException
+    {
+        for(int i = 0; i + 1 < lines.size(); i += 2)
+        {
+            add(lines.get(i), lines.get(i + 1));
+        }
+    }
+
+
+    /**
+     * Copy all documents from another buffer
+     * @param other another buffer
+     * @throws IOException an exception
+     */
+    public void addAll(BulkBuffer other) throws IOException
+    {
+        for(int i = 0; i < other.size(); i++)
+        {
+            add(other.getDoc(i));
+        }
+    }
+
+
+    private void add(byte[] doc) throws IOException
+    {
+        if(channel == null && numBytes + doc.length > spillThreshold)
+        {
+            spill();
+        }
+
+        if(channel == null)
+        {
+            memDocs.add(doc);
+        }
+        else
+        {
+            long offset = writeToFile(doc);
+
+            if(numDocs == offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[numDocs] = offset;
+        }
+
+        numDocs++;
+        numBytes += doc.length;
+    }
+
+
+    /**
+     * Move in-memory documents to a temporary file
+     */
+    private void spill() throws IOException
+    {
+        spillFile = Files.createTempFile("harvest-bulk-", ".ndjson");
+        channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+
+        // On POSIX systems, an open file can be unlinked right away.
+        // Then nothing is left behind even if the process is killed.
+        try
+        {
+            Files.deleteIfExists(spillFile);
+        }
+        catch(IOException ex)
+        {
+            // Windows. The file is deleted on close.
+        }
+
+        offsets = new long[Math.max(memDocs.size() * 2, 16)];
+        numBytes = 0;
+        for(int i = 0; i < memDocs.size(); i++)
+        {
+            byte[] doc = memDocs.get(i);
+            offsets[i] = writeToFile(doc);
+            numBytes += doc.length;
+        }
+
+        memDocs = null;
+    }
+
+
+    private long writeToFile(byte[] doc) throws IOException
+    {
+        long offset = numBytes;
+
+        ByteBuffer buf = ByteBuffer.wrap(doc);
+        long pos = offset;
+        while(buf.hasRemaining())
+        {
+            pos += channel.write(buf, pos);
+        }
+
+        return offset;
+    }
+
+
+    /**
+     * Get a document
+     * @param index document index (0, 1, 2...)
+     * @return action and source lines (each line ends with '\n') as UTF-8 bytes
+     * @throws IOException an exception
+     */
+    public byte[] getDoc(int index) throws IOException
+    {
+        if(index < 0 || index >= numDocs) throw new IndexOutOfBoundsException("Invalid document index " + index);
+
+        if(channel == null) return memDocs.get(index);
+
+        byte[] doc = new byte[getDocSize(index)];
+        ByteBuffer buf = ByteBuffer.wrap(doc);
+        long pos = offsets[index];
+        while(buf.hasRemaining())
+        {
+            int count = channel.read(buf, pos);
+            if(count < 0) throw new IOException("Unexpected end of file " + spillFile);
+            pos += count;
+        }
+
+        return doc;
+    }
+
+
+    /**
+     * Get size of a document
+     * @param index document index (0, 1, 2...)
+     * @return size of action and source lines in bytes
+     */
+    public int getDocSize(int index)
+    {
+        if(channel == null) return memDocs.get(index).length;
+
+        long end = (index + 1 < numDocs) ? offsets[index + 1] : numBytes;
+        return (int)(end - offsets[index]);
+    }
+
+
+    /**
+     * Get number of documents
+     * @return number of documents
+     */
+    public int size()
+    {
+        return numDocs;
+    }
+
+
+    /**
+     * Get size of all documents in bytes
+     * @return size in bytes
+     */
+    public long byteSize()
+    {
+        return numBytes;
+    }
+
+
+    /**
+     * Check if the buffer has no documents
+     * @return true if the buffer is empty
+     */
+    public boolean isEmpty()
+    {
+        return numDocs == 0;
+    }
+
+
+    /**
+     * Check if documents were moved to a temporary file
+     * @return true if documents are stored in a temporary file
+     */
+    public boolean isSpilled()
+    {
+        return channel != null;
+    }
+
+
+    /**
+     * Delete the temporary file (if any)
+     */
+    @Override
+    public void close()
+    {
+        if(channel == null) return;
+
+        try
+        {
+            channel.close();
+        }
+        catch(IOException ex)
+        {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+
+/**
+ * Bulk request body streamed from a bulk buffer one document at a time,
+ * so the whole request is never copied into memory.
+ * The entity is repeatable (Elasticsearch client could resend it to another node).
+ */
+public class BulkEntity extends AbstractHttpEntity
+{
+    private BulkBuffer buffer;
+    private List<Integer> indices;
+    private long length;
+
+
+    /**
+     * Constructor
+     * @param buffer all documents of the batch
+     * @param indices indices of documents to send
+     */
+    public BulkEntity(BulkBuffer buffer, List<Integer> indices)
+    {
+        this.buffer = buffer;
+        this.indices = indices;
+
+        for(int index: indices)
+        {
+            length += buffer.getDocSize(index);
+        }
+
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+
+    @Override
+    public long getContentLength()
+    {
+        return length;
+    }
+
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        return new DocStream();
+    }
+
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException
+    {
+        for(int index: indices)
+        {
+            out.write(buffer.getDoc(index));
+        }
+    }
+
+
+    /**
+     * Reads documents from the buffer one by one
+     */
+    private class DocStream extends InputStream
+    {
+        private int next;
+        private byte[] doc;
+        private int pos;
+
+
+        private boolean nextDoc() throws IOException
+        {
+            while(doc == null || pos >= doc.length)
+            {
+                if(next >= indices.size()) return false;
+
+                doc = buffer.getDoc(indices.get(next++));
+                pos = 0;
+            }
+
+            return true;
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            if(!nextDoc()) return -1;
+            return doc[pos++] & 0xFF;
+        }
+
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(len == 0) return 0;
+            if(!nextDoc()) return -1;
+
+            int count = Math.min(len, doc.length - pos);
+            System.arraycopy(doc, pos, b, off, count);
+            pos += count;
+
+            return count;
+        }
+    }
+}
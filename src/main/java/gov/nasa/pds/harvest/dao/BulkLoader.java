@@ -0,0 +1,534 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.harvest.util.ThreadUtils;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Loads documents into Elasticsearch with bulk API.
+ * <p>
+ * Unlike "all or nothing" loaders, this class checks the status of each document
+ * in the bulk response. Documents rejected with transient errors
+ * (429 - Too Many Requests, 503 - Service Unavailable) and documents of sub-bulks
+ * failed with transient errors (connection errors, timeouts, HTTP 429, 502, 503, 504)
+ * are resubmitted up to MAX_RETRIES times. Documents already loaded are not resent.
+ * Other failed documents are permanently rejected and returned to the caller 
+ * with the error reason.
+ * </p>
+ * <p>
+ * This is the only retry layer of bulk requests. Results of sub-bulk requests are 
+ * reported to the shared call policy (circuit breaker), and retries stop 
+ * when the circuit breaker opens.
+ * </p>
+ * This class is thread-safe.
+ */
+public class BulkLoader
+{
+    private static final int MAX_RETRIES = 5;
+    // Number of recently rejected documents to report on the status page
+    private static final int MAX_RECENT_FAILURES = 10;
+
+    private Logger log;
+    private RestClient client;
+    private String indexName;
+    private EsCallPolicy callPolicy;
+
+    // Split large batches into sub-bulks. Send up to "concurrency" sub-bulks at the same time.
+    private int maxDocs = 1000;
+    private long maxBytes = 10_000_000;
+    private int concurrency = 2;
+
+    // Statistics
+    private AtomicLong numLoaded = new AtomicLong();
+    private AtomicLong numRetried = new AtomicLong();
+    private AtomicLong numRejected = new AtomicLong();
+    private AtomicLong numSubBulks = new AtomicLong();
+    private LinkedList<String> recentFailures;
+
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client
+     * @param indexName Elasticsearch index name, e.g., "registry".
+     * @param callPolicy shared retry and circuit breaker policy
+     */
+    public BulkLoader(RestClient client, String indexName, EsCallPolicy callPolicy)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.client = client;
+        this.indexName = indexName;
+        this.callPolicy = callPolicy;
+        recentFailures = new LinkedList<>();
+
+        StatsRegistry.register("bulk", this::getStats);
+    }
+
+
+    /**
+     * Configure splitting of large batches. Call before loading any data.
+     * @param maxDocs max number of documents in one bulk request. 0 - unlimited.
+     * @param maxBytes max size of one bulk request in bytes. 0 - unlimited.
+     * @param concurrency max number of bulk requests of one batch sent at the same time
+     */
+    public void setSplitting(int maxDocs, long maxBytes, int concurrency)
+    {
+        this.maxDocs = maxDocs;
+        this.maxBytes = maxBytes;
+        this.concurrency = Math.max(concurrency, 1);
+    }
+
+
+    /**
+     * Load documents into Elasticsearch.
+     * Large batches are split into several bulk requests (sub-bulks) sent concurrently.
+     * The batch succeeds only if all sub-bulks succeed.
+     * @param docs Elasticsearch documents in NDJSON format (action line followed by source line)
+     * @return number of loaded documents and a list of permanently rejected documents
+     * @throws Exception if a request failed with a non-transient error, transient errors persisted 
+     * after all retries, or the circuit breaker is open.
+     */
+    public BulkResult load(BulkBuffer docs) throws Exception
+    {
+        BulkResult result = new BulkResult();
+
+        // Indices of documents to (re)submit
+        List<Integer> pending = new ArrayList<>(docs.size());
+        for(int i = 0; i < docs.size(); i++)
+        {
+            pending.add(i);
+        }
+
+        for(int retries = 0; ; retries++)
+        {
+            List<Integer> retryList = new ArrayList<>();
+
+            // Split into sub-bulks and send them concurrently
+            List<List<Integer>> chunks = split(docs, pending);
+            List<ChunkResult> chunkResults = sendAll(docs, chunks);
+
+            Exception error = null;
+            for(int c = 0; c < chunks.size(); c++)
+            {
+                List<Integer> chunk = chunks.get(c);
+                ChunkResult chunkResult = chunkResults.get(c);
+                
+                if(chunkResult.error != null)
+                {
+                    // Report the first error after processing results of other sub-bulks
+                    if(error == null) error = chunkResult.error;
+                    continue;
+                }
+                
+                if(chunkResult.items == null)
+                {
+                    // The whole sub-bulk failed with a transient error
+                    retryList.addAll(chunk);
+                    continue;
+                }
+
+                processItems(chunk, chunkResult.items, result, retryList);
+            }
+
+            if(error != null)
+            {
+                // Documents of other sub-bulks are already loaded. 
+                // Re-loading them is safe (documents are overwritten).
+                numLoaded.addAndGet(result.numLoaded);
+                String msg = String.format("Bulk request failed. Loaded %d of %d documents. %s",
+                        result.numLoaded, docs.size(), ExceptionUtils.getMessage(error));
+                throw new Exception(msg);
+            }
+
+            result.numThrottled += retryList.size();
+            if(retryList.isEmpty()) break;
+
+            if(retries >= MAX_RETRIES || callPolicy.isOpen())
+            {
+                numLoaded.addAndGet(result.numLoaded);
+                String reason = callPolicy.isOpen() ? "Elasticsearch is unavailable." : "Elasticsearch is overloaded.";
+                String msg = String.format("Could not load %d documents after %d retries. %s",
+                        retryList.size(), retries, reason);
+                throw new Exception(msg);
+            }
+
+            int delay = 1 << retries;
+            log.warn("Elasticsearch could not load " + retryList.size() + " documents (transient error). "
+                    + "Will retry in " + delay + " sec.");
+            numRetried.addAndGet(retryList.size());
+            ThreadUtils.sleepSec(delay);
+
+            pending = retryList;
+        }
+
+        numLoaded.addAndGet(result.numLoaded);
+        numRejected.addAndGet(result.failures.size());
+
+        return result;
+    }
+
+
+    private void processItems(List<Integer> chunk, List<ItemStatus> items, 
+            BulkResult result, List<Integer> retryList) throws Exception
+    {
+        if(items.size() != chunk.size())
+        {
+            String msg = String.format("Invalid bulk response. Expected %d items, got %d.",
+                    chunk.size(), items.size());
+            throw new Exception(msg);
+        }
+
+        for(int i = 0; i < items.size(); i++)
+        {
+            ItemStatus item = items.get(i);
+            int docIndex = chunk.get(i);
+
+            if(item.status < 300)
+            {
+                result.numLoaded++;
+                result.loadedIds.add(item.id);
+            }
+            else if(isTransient(item.status))
+            {
+                retryList.add(docIndex);
+            }
+            else
+            {
+                result.failures.add(new BulkResult.Failure(docIndex, item.id, item.status, item.reason));
+                addRecentFailure(item);
+            }
+        }
+    }
+
+
+    /**
+     * Split documents into sub-bulks of up to maxDocs documents and maxBytes bytes.
+     * A document bigger than maxBytes is sent in its own sub-bulk.
+     * @param docs all documents of the batch
+     * @param indices indices of documents to send
+     * @return indices of documents of each sub-bulk
+     */
+    private List<List<Integer>> split(BulkBuffer docs, List<Integer> indices)
+    {
+        List<List<Integer>> chunks = new ArrayList<>();
+
+        List<Integer> chunk = new ArrayList<>();
+        long chunkBytes = 0;
+
+        for(int index: indices)
+        {
+            int docSize = docs.getDocSize(index);
+            boolean full = (maxDocs > 0 && chunk.size() >= maxDocs) 
+                    || (maxBytes > 0 && chunkBytes + docSize > maxBytes);
+
+            if(full && !chunk.isEmpty())
+            {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkBytes = 0;
+            }
+
+            chunk.add(index);
+            chunkBytes += docSize;
+        }
+
+        if(!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+
+
+    /**
+     * Result of one sub-bulk request
+     */
+    private static class ChunkResult
+    {
+        // Status of each document. Null if the whole request failed with a transient error.
+        public List<ItemStatus> items;
+        // Non-transient error
+        public Exception error;
+        // Request time
+        public long startTime;
+        public long timeMs;
+    }
+
+
+    /**
+     * Send sub-bulk requests. Up to "concurrency" requests are in flight at the same time.
+     * Responses are parsed on the caller's thread (not on HTTP client I/O threads).
+     * @param docs all documents of the batch
+     * @param chunks indices of documents of each sub-bulk
+     * @return result of each sub-bulk
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private List<ChunkResult> sendAll(BulkBuffer docs, List<List<Integer>> chunks) throws InterruptedException
+    {
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<Response>> futures = new ArrayList<>(chunks.size());
+        List<ChunkResult> results = new ArrayList<>(chunks.size());
+
+        for(List<Integer> chunk: chunks)
+        {
+            permits.acquire();
+            
+            ChunkResult result = new ChunkResult();
+            results.add(result);
+            result.startTime = System.currentTimeMillis();
+            
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            future.whenComplete((resp, ex) -> permits.release());
+            futures.add(future);
+            numSubBulks.incrementAndGet();
+
+            client.performRequestAsync(createRequest(docs, chunk), new ResponseListener()
+            {
+                @Override
+                public void onSuccess(Response resp)
+                {
+                    result.timeMs = System.currentTimeMillis() - result.startTime;
+                    future.complete(resp);
+                }
+
+                @Override
+                public void onFailure(Exception ex)
+                {
+                    result.timeMs = System.currentTimeMillis() - result.startTime;
+                    future.completeExceptionally(ex);
+                }
+            });
+        }
+
+        for(int i = 0; i < chunks.size(); i++)
+        {
+            ChunkResult result = results.get(i);
+
+            try
+            {
+                Response resp = futures.get(i).get();
+                callPolicy.report("_bulk", result.timeMs, null);
+                result.items = parseResponse(resp, chunks.get(i).size());
+            }
+            catch(ExecutionException ex)
+            {
+                Exception cause = (ex.getCause() instanceof Exception) ? (Exception)ex.getCause() : ex;
+                callPolicy.report("_bulk", result.timeMs, cause);
+                
+                // Connection errors, timeouts, 429, 502, 503, 504. Retry the whole sub-bulk.
+                // Otherwise, report the error.
+                if(!EsCallPolicy.isTransient(cause)) result.error = cause;
+            }
+            catch(InterruptedException ex)
+            {
+                throw ex;
+            }
+            catch(Exception ex)
+            {
+                // Could not parse the response
+                result.error = ex;
+            }
+            
+            if(chunks.size() > 1)
+            {
+                String status = (result.error != null) ? "error: " + ExceptionUtils.getMessage(result.error)
+                        : (result.items == null) ? "transient error" : "OK";
+                log.debug("Sub-bulk " + (i + 1) + " of " + chunks.size() + ": " + chunks.get(i).size() 
+                        + " documents, " + status);
+            }
+        }
+
+        return results;
+    }
+
+
+    private Request createRequest(BulkBuffer docs, List<Integer> indices)
+    {
+        Request req = new Request("POST", "/" + indexName + "/_bulk");
+        req.addParameter("refresh", "wait_for");
+        // Stream request body from the buffer
+        req.setEntity(new BulkEntity(docs, indices));
+        
+        return req;
+    }
+
+
+    private static boolean isTransient(int status)
+    {
+        return status == 429 || status == 503;
+    }
+
+
+    /**
+     * Status of one document in the bulk response
+     */
+    private static class ItemStatus
+    {
+        public String id;
+        public int status;
+        public String reason;
+    }
+
+
+    private static List<ItemStatus> parseResponse(Response resp, int size) throws Exception
+    {
+        List<ItemStatus> items = new ArrayList<>(size);
+
+        Reader rd = new InputStreamReader(resp.getEntity().getContent(), StandardCharsets.UTF_8);
+        JsonReader jsonReader = new JsonReader(rd);
+
+        try
+        {
+            jsonReader.beginObject();
+            while(jsonReader.hasNext())
+            {
+                String name = jsonReader.nextName();
+                if("items".equals(name))
+                {
+                    jsonReader.beginArray();
+                    while(jsonReader.hasNext())
+                    {
+                        items.add(parseItem(jsonReader));
+                    }
+                    jsonReader.endArray();
+                }
+                else
+                {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+        finally
+        {
+            CloseUtils.close(jsonReader);
+        }
+
+        return items;
+    }
+
+
+    /**
+     * Parse bulk response item, e.g.,
+     * {"index": {"_id": "...", "status": 400, "error": {"type": "...", "reason": "..."}}}
+     */
+    private static ItemStatus parseItem(JsonReader jsonReader) throws Exception
+    {
+        ItemStatus item = new ItemStatus();
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            // Operation name, e.g., "index" or "create"
+            jsonReader.nextName();
+
+            jsonReader.beginObject();
+            while(jsonReader.hasNext())
+            {
+                String name = jsonReader.nextName();
+                if("_id".equals(name))
+                {
+                    item.id = jsonReader.nextString();
+                }
+                else if("status".equals(name))
+                {
+                    item.status = jsonReader.nextInt();
+                }
+                else if("error".equals(name))
+                {
+                    item.reason = parseError(jsonReader);
+                }
+                else
+                {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+        jsonReader.endObject();
+
+        return item;
+    }
+
+
+    private static String parseError(JsonReader jsonReader) throws Exception
+    {
+        if(jsonReader.peek() != JsonToken.BEGIN_OBJECT)
+        {
+            return jsonReader.nextString();
+        }
+
+        String type = null;
+        String reason = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("type".equals(name))
+            {
+                type = jsonReader.nextString();
+            }
+            else if("reason".equals(name))
+            {
+                reason = jsonReader.nextString();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return (type == null) ? reason : type + ": " + reason;
+    }
+
+
+    private void addRecentFailure(ItemStatus item)
+    {
+        synchronized(recentFailures)
+        {
+            if(recentFailures.size() >= MAX_RECENT_FAILURES) recentFailures.removeFirst();
+            recentFailures.add(item.id + " - " + item.reason);
+        }
+    }
+
+
+    private Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", numLoaded.get());
+        stats.put("retried", numRetried.get());
+        stats.put("rejected", numRejected.get());
+        stats.put("requests", numSubBulks.get());
+
+        synchronized(recentFailures)
+        {
+            stats.put("recentRejected", new ArrayList<>(recentFailures));
+        }
+
+        return stats;
+    }
+}
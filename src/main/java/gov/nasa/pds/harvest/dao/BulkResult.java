@@ -0,0 +1,63 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Result of loading a batch of documents with Elasticsearch bulk API.
+ */
+public class BulkResult
+{
+    /**
+     * A document permanently rejected by Elasticsearch,
+     * e.g., because of a mapping conflict.
+     */
+    public static class Failure
+    {
+        /**
+         * Document index in the batch (0, 1, 2...)
+         */
+        public int index;
+        public String id;
+        public int status;
+        public String reason;
+
+        /**
+         * Constructor
+         * @param index document index in the batch
+         * @param id document id (lidvid)
+         * @param status HTTP status code
+         * @param reason error reason returned by Elasticsearch
+         */
+        public Failure(int index, String id, int status, String reason)
+        {
+            this.index = index;
+            this.id = id;
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+
+    /**
+     * Number of loaded documents
+     */
+    public int numLoaded;
+
+    /**
+     * Number of documents rejected with transient errors (429, 503) and resubmitted.
+     * Greater than 0 if Elasticsearch is overloaded.
+     */
+    public int numThrottled;
+
+    /**
+     * IDs (lidvids) of loaded documents
+     */
+    public List<String> loadedIds = new ArrayList<>();
+
+    /**
+     * Permanently rejected documents
+     */
+    public List<Failure> failures = new ArrayList<>();
+}
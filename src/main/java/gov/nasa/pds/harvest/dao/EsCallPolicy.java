@@ -0,0 +1,398 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.ResponseException;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Retry and circuit breaker policy shared by all Elasticsearch calls.
+ * <p>
+ * Calls failed with transient errors (connection errors, timeouts, HTTP 429, 502, 503, 504)
+ * are retried with exponential backoff and full jitter, so consumer threads are blocked
+ * for a few seconds at most. After "failureThreshold" consecutive transient errors
+ * (from any thread) the circuit breaker opens: calls fail immediately, listeners are notified
+ * (e.g., to pause message consumption), and Elasticsearch is probed in background
+ * every "openMs" milliseconds. The breaker closes after a successful probe.
+ * </p>
+ * Latency and errors of each endpoint are published on the status page.
+ * This class is thread-safe.
+ */
+public class EsCallPolicy
+{
+    /**
+     * An Elasticsearch call
+     * @param <T> result type
+     */
+    public static interface EsCall<T>
+    {
+        public T call() throws Exception;
+    }
+
+
+    /**
+     * Receives circuit breaker state changes
+     */
+    public static interface StateListener
+    {
+        /**
+         * Called on a background thread when the breaker opens or closes
+         * @param open true if Elasticsearch is unavailable
+         */
+        public void onStateChange(boolean open);
+    }
+
+
+    /**
+     * Call statistics of one endpoint
+     */
+    private static class EndpointStats
+    {
+        public long calls;
+        public long errors;
+        public long transientErrors;
+        public long totalMs;
+        public long maxMs;
+    }
+
+
+    private Logger log;
+
+    private int maxRetries = 3;
+    private long baseDelayMs = 200;
+    private long maxDelayMs = 5_000;
+    private int failureThreshold = 5;
+    private long openMs = 30_000;
+
+    // Checks if Elasticsearch is back
+    private EsCall<?> probe;
+    private ScheduledExecutorService prober;
+    private List<StateListener> listeners;
+
+    // Circuit breaker state
+    private volatile boolean open;
+    private int consecutiveFailures;
+
+    // Statistics
+    private Map<String, EndpointStats> endpoints;
+    private long numOpened;
+    private long numRejected;
+
+
+    /**
+     * Constructor
+     * @param probe a lightweight Elasticsearch call to check if Elasticsearch is back
+     */
+    public EsCallPolicy(EsCall<?> probe)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.probe = probe;
+
+        listeners = new CopyOnWriteArrayList<>();
+        endpoints = new LinkedHashMap<>();
+
+        prober = Executors.newSingleThreadScheduledExecutor((r) ->
+        {
+            Thread thread = new Thread(r, "es-circuit-breaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        StatsRegistry.register("elasticsearch", this::getStats);
+    }
+
+
+    /**
+     * Configure the policy. Call before any Elasticsearch calls.
+     * @param maxRetries max number of retries of a call failed with a transient error
+     * @param failureThreshold number of consecutive transient errors to open the circuit breaker
+     * @param openSec time in seconds between probes while the circuit breaker is open
+     */
+    public void configure(int maxRetries, int failureThreshold, int openSec)
+    {
+        this.maxRetries = maxRetries;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openMs = Math.max(openSec, 1) * 1000L;
+    }
+
+
+    /**
+     * Add circuit breaker state listener
+     * @param listener a listener
+     */
+    public void addListener(StateListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    /**
+     * Check if the circuit breaker is open (Elasticsearch is unavailable)
+     * @return true if the circuit breaker is open
+     */
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+
+    /**
+     * Call Elasticsearch. Retry transient errors.
+     * @param endpoint endpoint name used in statistics, e.g., "_bulk"
+     * @param call Elasticsearch call
+     * @return call result
+     * @throws Exception the last error, or an exception if the circuit breaker is open
+     */
+    public <T> T call(String endpoint, EsCall<T> call) throws Exception
+    {
+        for(int attempt = 0; ; attempt++)
+        {
+            if(open)
+            {
+                synchronized(this)
+                {
+                    numRejected++;
+                }
+                throw new Exception("Elasticsearch is unavailable (circuit breaker is open).");
+            }
+
+            long startTime = System.currentTimeMillis();
+            try
+            {
+                T result = call.call();
+                onSuccess(endpoint, System.currentTimeMillis() - startTime);
+                return result;
+            }
+            catch(InterruptedException ex)
+            {
+                throw ex;
+            }
+            catch(Exception ex)
+            {
+                boolean isTransient = isTransient(ex);
+                onError(endpoint, System.currentTimeMillis() - startTime, isTransient);
+
+                if(!isTransient || attempt >= maxRetries || open) throw ex;
+
+                long delay = getDelay(attempt);
+                log.warn("Elasticsearch call (" + endpoint + ") failed. " + ExceptionUtils.getMessage(ex)
+                        + " Will retry in " + delay + " ms.");
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+
+    /**
+     * Record the result of an Elasticsearch call retried by the caller (e.g., bulk requests).
+     * Transient errors count towards opening the circuit breaker.
+     * @param endpoint endpoint name used in statistics, e.g., "_bulk"
+     * @param timeMs call time in milliseconds
+     * @param error call error. Null if the call succeeded.
+     */
+    public void report(String endpoint, long timeMs, Exception error)
+    {
+        if(error == null)
+        {
+            onSuccess(endpoint, timeMs);
+        }
+        else
+        {
+            onError(endpoint, timeMs, isTransient(error));
+        }
+    }
+
+
+    /**
+     * Stop background probes
+     */
+    public void close()
+    {
+        prober.shutdownNow();
+    }
+
+
+    /**
+     * Exponential backoff with full jitter: random delay between 0 and min(max, base * 2^attempt)
+     */
+    private long getDelay(int attempt)
+    {
+        long maxDelay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(maxDelay + 1);
+    }
+
+
+    /**
+     * Connection errors (refused, closed, unknown host), timeouts and "overloaded / unavailable" 
+     * HTTP responses (429, 502, 503, 504) are transient. Other errors, including other I/O errors 
+     * (e.g., SSL handshake errors) and HTTP errors (e.g., 400 - invalid request), 
+     * are returned to the caller right away.
+     * @param ex an exception
+     * @return true if the call could succeed if retried
+     */
+    public static boolean isTransient(Throwable ex)
+    {
+        for(Throwable err = ex; err != null; err = err.getCause())
+        {
+            if(err instanceof ResponseException)
+            {
+                int status = ((ResponseException)err).getResponse().getStatusLine().getStatusCode();
+                return status == 429 || status == 502 || status == 503 || status == 504;
+            }
+
+            if(err instanceof ConnectException
+                    || err instanceof ConnectTimeoutException
+                    || err instanceof SocketTimeoutException
+                    || err instanceof ConnectionClosedException
+                    || err instanceof UnknownHostException)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private synchronized EndpointStats getEndpoint(String endpoint)
+    {
+        return endpoints.computeIfAbsent(endpoint, (key) -> new EndpointStats());
+    }
+
+
+    private void onSuccess(String endpoint, long timeMs)
+    {
+        synchronized(this)
+        {
+            EndpointStats stats = getEndpoint(endpoint);
+            stats.calls++;
+            stats.totalMs += timeMs;
+            stats.maxMs = Math.max(stats.maxMs, timeMs);
+
+            consecutiveFailures = 0;
+        }
+    }
+
+
+    private void onError(String endpoint, long timeMs, boolean isTransient)
+    {
+        boolean opened = false;
+
+        synchronized(this)
+        {
+            EndpointStats stats = getEndpoint(endpoint);
+            stats.calls++;
+            stats.errors++;
+            stats.totalMs += timeMs;
+            stats.maxMs = Math.max(stats.maxMs, timeMs);
+            if(isTransient) stats.transientErrors++;
+
+            // Elasticsearch responded. It is up.
+            if(!isTransient)
+            {
+                consecutiveFailures = 0;
+                return;
+            }
+
+            consecutiveFailures++;
+            if(!open && consecutiveFailures >= failureThreshold)
+            {
+                open = true;
+                opened = true;
+                numOpened++;
+            }
+        }
+
+        if(opened)
+        {
+            log.error("Elasticsearch is unavailable. Circuit breaker is open. Will check again in "
+                    + openMs / 1000 + " sec.");
+            notifyListeners(true);
+            prober.schedule(this::probe, openMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private void probe()
+    {
+        try
+        {
+            probe.call();
+        }
+        catch(Exception ex)
+        {
+            log.warn("Elasticsearch is still unavailable. " + ExceptionUtils.getMessage(ex));
+            prober.schedule(this::probe, openMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        synchronized(this)
+        {
+            open = false;
+            consecutiveFailures = 0;
+        }
+
+        log.info("Elasticsearch is available. Circuit breaker is closed.");
+        notifyListeners(false);
+    }
+
+
+    private void notifyListeners(boolean isOpen)
+    {
+        for(StateListener listener: listeners)
+        {
+            try
+            {
+                listener.onStateChange(isOpen);
+            }
+            catch(Exception ex)
+            {
+                log.warn("Circuit breaker listener failed. " + ExceptionUtils.getMessage(ex));
+            }
+        }
+    }
+
+
+    private synchronized Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("circuitBreaker", open ? "open" : "closed");
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("opened", numOpened);
+        stats.put("rejectedCalls", numRejected);
+
+        Map<String, Object> epStats = new LinkedHashMap<>();
+        for(Map.Entry<String, EndpointStats> item: endpoints.entrySet())
+        {
+            EndpointStats ep = item.getValue();
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("calls", ep.calls);
+            map.put("errors", ep.errors);
+            map.put("transientErrors", ep.transientErrors);
+            map.put("avgLatencyMs", ep.calls == 0 ? 0 : ep.totalMs / ep.calls);
+            map.put("maxLatencyMs", ep.maxMs);
+            epStats.put(item.getKey(), map);
+        }
+        stats.put("endpoints", epStats);
+
+        return stats;
+    }
+}
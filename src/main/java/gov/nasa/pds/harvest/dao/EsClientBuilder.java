@@ -0,0 +1,231 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.FileReader;
+import java.io.Reader;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+
+import gov.nasa.pds.harvest.cfg.EsClientCfg;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Creates Elasticsearch REST client with gzip compression,
+ * tunable connection pool, keep-alive and timeouts.
+ * Requests are sent to one or more nodes round-robin.
+ * <p>
+ * Authentication file is a properties file, e.g.,
+ * <pre>
+ * trust.self-signed = true
+ * user = elastic
+ * password = test
+ * </pre>
+ * </p>
+ */
+public class EsClientBuilder
+{
+    private static final String PROP_USER = "user";
+    private static final String PROP_PASSWORD = "password";
+    private static final String PROP_TRUST_SELF_SIGNED = "trust.self-signed";
+
+    private EsClientCfg cfg;
+    private HttpHost[] hosts;
+    private EsNodeMonitor nodeMonitor;
+
+    private String user;
+    private String password;
+    private boolean trustSelfSigned;
+
+
+    /**
+     * Constructor
+     * @param url Elasticsearch URL, e.g., "http://localhost:9200"
+     * @param cfg client configuration
+     * @throws Exception an exception
+     */
+    public EsClientBuilder(String url, EsClientCfg cfg) throws Exception
+    {
+        this(Collections.singletonList(url), cfg);
+    }
+
+
+    /**
+     * Constructor
+     * @param urls Elasticsearch node URLs
+     * @param cfg client configuration
+     * @throws Exception an exception
+     */
+    public EsClientBuilder(List<String> urls, EsClientCfg cfg) throws Exception
+    {
+        this.cfg = cfg;
+
+        hosts = new HttpHost[urls.size()];
+        for(int i = 0; i < hosts.length; i++)
+        {
+            hosts[i] = parseUrl(urls.get(i));
+        }
+    }
+
+
+    /**
+     * Track requests of each node and exclude failed and slow nodes from the rotation
+     * @param nodeMonitor node monitor
+     */
+    public void setNodeMonitor(EsNodeMonitor nodeMonitor)
+    {
+        this.nodeMonitor = nodeMonitor;
+    }
+
+
+    /**
+     * Read user name, password and SSL settings from an authentication file
+     * @param authFile authentication file path. Can be null.
+     * @throws Exception an exception
+     */
+    public void configureAuth(String authFile) throws Exception
+    {
+        if(authFile == null) return;
+
+        Properties props = new Properties();
+        Reader rd = new FileReader(authFile);
+        try
+        {
+            props.load(rd);
+        }
+        finally
+        {
+            CloseUtils.close(rd);
+        }
+
+        user = props.getProperty(PROP_USER);
+        password = props.getProperty(PROP_PASSWORD);
+        trustSelfSigned = "true".equalsIgnoreCase(props.getProperty(PROP_TRUST_SELF_SIGNED));
+
+        if(user != null && password == null)
+        {
+            throw new Exception("Missing '" + PROP_PASSWORD + "' property in " + authFile);
+        }
+    }
+
+
+    /**
+     * Build the client
+     * @return Elasticsearch REST client
+     * @throws Exception an exception
+     */
+    public RestClient build() throws Exception
+    {
+        RestClientBuilder bld = RestClient.builder(hosts);
+
+        // Request bodies are compressed with gzip, "Accept-Encoding: gzip" is added,
+        // and compressed responses are decompressed by the client.
+        bld.setCompressionEnabled(cfg.gzip);
+
+        bld.setRequestConfigCallback((reqCfg) -> reqCfg
+                .setConnectTimeout(cfg.connectTimeoutSec * 1000)
+                .setSocketTimeout(cfg.socketTimeoutSec * 1000));
+
+        CredentialsProvider credentials = createCredentialsProvider();
+        SSLContext sslContext = trustSelfSigned ? createTrustAllContext() : null;
+
+        bld.setHttpClientConfigCallback((httpCfg) ->
+        {
+            httpCfg.setMaxConnTotal(cfg.maxConnections);
+            httpCfg.setMaxConnPerRoute(cfg.maxConnectionsPerNode);
+
+            // Elasticsearch doesn't send "Keep-Alive" header. Don't keep idle connections
+            // forever, so they are not closed by a firewall / load balancer in the middle of a request.
+            long keepAliveMs = cfg.keepAliveSec * 1000L;
+            httpCfg.setKeepAliveStrategy((resp, ctx) -> keepAliveMs);
+
+            if(credentials != null) httpCfg.setDefaultCredentialsProvider(credentials);
+
+            if(nodeMonitor != null)
+            {
+                httpCfg.addInterceptorFirst((HttpRequestInterceptor)nodeMonitor);
+                httpCfg.addInterceptorLast((HttpResponseInterceptor)nodeMonitor);
+            }
+
+            if(sslContext != null)
+            {
+                httpCfg.setSSLContext(sslContext);
+                httpCfg.setSSLHostnameVerifier((hostname, session) -> true);
+            }
+
+            return httpCfg;
+        });
+
+        if(nodeMonitor != null)
+        {
+            bld.setNodeSelector(nodeMonitor);
+            bld.setFailureListener(nodeMonitor.createFailureListener());
+        }
+
+        return bld.build();
+    }
+
+
+    private CredentialsProvider createCredentialsProvider()
+    {
+        if(user == null) return null;
+
+        CredentialsProvider provider = new BasicCredentialsProvider();
+        provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, password));
+        return provider;
+    }
+
+
+    private static SSLContext createTrustAllContext() throws Exception
+    {
+        TrustManager trustAll = new X509TrustManager()
+        {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType)
+            {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType)
+            {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers()
+            {
+                return new X509Certificate[0];
+            }
+        };
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, new TrustManager[] { trustAll }, null);
+        return ctx;
+    }
+
+
+    private static HttpHost parseUrl(String url) throws Exception
+    {
+        URL u = new URL(url);
+
+        int port = u.getPort();
+        if(port < 0) port = "https".equalsIgnoreCase(u.getProtocol()) ? 443 : 9200;
+
+        return new HttpHost(u.getHost(), port, u.getProtocol());
+    }
+}
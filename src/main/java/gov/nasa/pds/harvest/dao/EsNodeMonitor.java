@@ -0,0 +1,324 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+
+
+/**
+ * Tracks requests and latency of each Elasticsearch node and temporarily
+ * blacklists failed and slow nodes.
+ * <p>
+ * The REST client sends requests to nodes round-robin. This node selector removes
+ * blacklisted nodes from the rotation (unless all nodes are blacklisted):
+ * </p>
+ * <ul>
+ * <li>Failed nodes (connection errors, HTTP 502, 503, 504).</li>
+ * <li>Slow nodes. Latency (exponential moving average) of an endpoint is several 
+ * times higher than latency of the same endpoint on the fastest node.</li>
+ * </ul>
+ * <p>
+ * Latency is measured from sending a request to receiving response headers
+ * by HTTP client interceptors. It is tracked per endpoint ("_bulk", "_mget", "_search", etc.),
+ * because latency of different endpoints is very different, e.g., "_bulk" with 
+ * "refresh=wait_for" takes a second or more, while "_mget" takes a few milliseconds.
+ * Per-node statistics are published on the status page.
+ * </p>
+ * This class is thread-safe.
+ */
+public class EsNodeMonitor implements NodeSelector, HttpRequestInterceptor, HttpResponseInterceptor
+{
+    private static final String ATTR_START_TIME = "harvest.startTime";
+    private static final String ATTR_ENDPOINT = "harvest.endpoint";
+    // Requests without an Elasticsearch API endpoint in the path, e.g., "/" or "/index"
+    private static final String OTHER_ENDPOINT = "other";
+
+    // Weight of the last request in the latency moving average
+    private static final double EWMA_ALPHA = 0.2;
+    // Don't compare latency of nodes with fewer requests
+    private static final int MIN_SAMPLES = 20;
+    // A node is slow if its latency is this many times higher than latency of the fastest node...
+    private static final double SLOW_FACTOR = 3.0;
+    // ...and higher than this value
+    private static final double SLOW_MIN_MS = 500;
+
+
+    /**
+     * Recent latency of one endpoint
+     */
+    private static class Latency
+    {
+        // Samples since the node was (re-)added to the rotation
+        public int samples;
+        public double ewmaMs;
+    }
+
+
+    /**
+     * Statistics of one node
+     */
+    private static class NodeInfo
+    {
+        public long requests;
+        public long responses;
+        public long errors;
+        public long totalMs;
+        public long maxMs;
+
+        // Endpoint -> recent latency
+        public Map<String, Latency> latency = new TreeMap<>();
+
+        public long blacklistedUntil;
+        public long blacklistCount;
+    }
+
+
+    private Logger log;
+    private long blacklistMs;
+    private Map<HttpHost, NodeInfo> nodes;
+
+
+    /**
+     * Constructor
+     * @param blacklistSec time in seconds to keep failed or slow nodes out of the rotation
+     */
+    public EsNodeMonitor(int blacklistSec)
+    {
+        log = LogManager.getLogger(this.getClass());
+        blacklistMs = blacklistSec * 1000L;
+        nodes = new LinkedHashMap<>();
+
+        StatsRegistry.register("esNodes", this::getStats);
+    }
+
+
+    /**
+     * Create a listener of node failures to register in the REST client
+     * @return failure listener
+     */
+    public RestClient.FailureListener createFailureListener()
+    {
+        return new RestClient.FailureListener()
+        {
+            @Override
+            public void onFailure(Node node)
+            {
+                onNodeFailure(node.getHost());
+            }
+        };
+    }
+
+
+    /**
+     * Remove blacklisted nodes. Keep all nodes if all of them are blacklisted.
+     */
+    @Override
+    public synchronized void select(Iterable<Node> candidates)
+    {
+        long now = System.currentTimeMillis();
+
+        boolean hasActiveNode = false;
+        for(Node node: candidates)
+        {
+            if(!isBlacklisted(node.getHost(), now))
+            {
+                hasActiveNode = true;
+                break;
+            }
+        }
+
+        if(!hasActiveNode) return;
+
+        Iterator<Node> it = candidates.iterator();
+        while(it.hasNext())
+        {
+            if(isBlacklisted(it.next().getHost(), now)) it.remove();
+        }
+    }
+
+
+    /**
+     * Called by HTTP client before a request is sent to a node
+     */
+    @Override
+    public void process(HttpRequest request, HttpContext context)
+    {
+        context.setAttribute(ATTR_START_TIME, System.currentTimeMillis());
+        context.setAttribute(ATTR_ENDPOINT, getEndpoint(request.getRequestLine().getUri()));
+
+        HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+        if(host == null) return;
+
+        synchronized(this)
+        {
+            getNode(host).requests++;
+        }
+    }
+
+
+    /**
+     * Called by HTTP client after response headers are received from a node
+     */
+    @Override
+    public void process(HttpResponse response, HttpContext context)
+    {
+        Object startTime = context.getAttribute(ATTR_START_TIME);
+        Object endpoint = context.getAttribute(ATTR_ENDPOINT);
+        HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+        if(!(startTime instanceof Long) || !(endpoint instanceof String) || host == null) return;
+
+        long timeMs = System.currentTimeMillis() - (Long)startTime;
+
+        synchronized(this)
+        {
+            NodeInfo info = getNode(host);
+            info.responses++;
+            info.totalMs += timeMs;
+            info.maxMs = Math.max(info.maxMs, timeMs);
+            
+            Latency lat = info.latency.computeIfAbsent((String)endpoint, (key) -> new Latency());
+            lat.ewmaMs = (lat.samples == 0) ? timeMs : EWMA_ALPHA * timeMs + (1 - EWMA_ALPHA) * lat.ewmaMs;
+            lat.samples++;
+
+            if(isSlow(info, (String)endpoint, lat))
+            {
+                blacklist(host, info, String.format("Latency of %s %.0f ms is too high.", endpoint, lat.ewmaMs));
+            }
+        }
+    }
+
+
+    private synchronized void onNodeFailure(HttpHost host)
+    {
+        NodeInfo info = getNode(host);
+        info.errors++;
+        blacklist(host, info, "Request failed.");
+    }
+
+
+    private void blacklist(HttpHost host, NodeInfo info, String reason)
+    {
+        long now = System.currentTimeMillis();
+        if(info.blacklistedUntil > now) return;
+
+        info.blacklistedUntil = now + blacklistMs;
+        info.blacklistCount++;
+        log.warn("Elasticsearch node " + host + " is blacklisted for " + blacklistMs / 1000 + " sec. " + reason);
+    }
+
+
+    private boolean isBlacklisted(HttpHost host, long now)
+    {
+        NodeInfo info = nodes.get(host);
+        if(info == null || info.blacklistedUntil == 0) return false;
+        if(info.blacklistedUntil > now) return true;
+
+        // Back in the rotation. Measure latency again.
+        info.blacklistedUntil = 0;
+        info.latency.clear();
+        return false;
+    }
+
+
+    /**
+     * Compare node latency of an endpoint with latency of the same endpoint 
+     * on the fastest active node
+     */
+    private boolean isSlow(NodeInfo info, String endpoint, Latency lat)
+    {
+        if(lat.samples < MIN_SAMPLES || lat.ewmaMs < SLOW_MIN_MS) return false;
+
+        double minMs = Double.MAX_VALUE;
+        for(NodeInfo other: nodes.values())
+        {
+            if(other == info || other.blacklistedUntil != 0) continue;
+            
+            Latency otherLat = other.latency.get(endpoint);
+            if(otherLat == null || otherLat.samples < MIN_SAMPLES) continue;
+            minMs = Math.min(minMs, otherLat.ewmaMs);
+        }
+
+        // Only one node
+        if(minMs == Double.MAX_VALUE) return false;
+
+        return lat.ewmaMs > minMs * SLOW_FACTOR;
+    }
+
+
+    /**
+     * Get Elasticsearch API endpoint from request URI, e.g., 
+     * "/registry/_bulk?refresh=wait_for" -> "_bulk".
+     * @param uri request URI
+     * @return the last path segment starting with "_" or "other"
+     */
+    static String getEndpoint(String uri)
+    {
+        if(uri == null) return OTHER_ENDPOINT;
+        
+        int idx = uri.indexOf('?');
+        String path = (idx < 0) ? uri : uri.substring(0, idx);
+
+        String endpoint = OTHER_ENDPOINT;
+        for(String segment: path.split("/"))
+        {
+            if(segment.startsWith("_")) endpoint = segment;
+        }
+
+        return endpoint;
+    }
+
+
+    private NodeInfo getNode(HttpHost host)
+    {
+        return nodes.computeIfAbsent(host, (key) -> new NodeInfo());
+    }
+
+
+    private synchronized Object getStats()
+    {
+        long now = System.currentTimeMillis();
+        List<Object> list = new ArrayList<>();
+
+        for(Map.Entry<HttpHost, NodeInfo> item: nodes.entrySet())
+        {
+            NodeInfo info = item.getValue();
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("node", item.getKey().toURI());
+            map.put("requests", info.requests);
+            map.put("errors", info.errors);
+            map.put("avgLatencyMs", info.responses == 0 ? 0 : info.totalMs / info.responses);
+
+            Map<String, Object> recentMs = new LinkedHashMap<>();
+            for(Map.Entry<String, Latency> lat: info.latency.entrySet())
+            {
+                recentMs.put(lat.getKey(), Math.round(lat.getValue().ewmaMs));
+            }
+            map.put("recentLatencyMs", recentMs);
+            map.put("maxLatencyMs", info.maxMs);
+            map.put("blacklisted", info.blacklistedUntil > now);
+            map.put("blacklistCount", info.blacklistCount);
+            list.add(map);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,229 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+
+import com.google.gson.stream.JsonReader;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Periodically discovers HTTP addresses of Elasticsearch (OpenSearch) cluster nodes
+ * with "_nodes/http" API and updates the node list of the REST client.
+ */
+public class EsNodeSniffer
+{
+    private Logger log;
+    private RestClient client;
+    private String scheme;
+    private ScheduledExecutorService executor;
+
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client
+     * @param scheme URL scheme of discovered nodes ("http" or "https")
+     */
+    public EsNodeSniffer(RestClient client, String scheme)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.client = client;
+        this.scheme = scheme;
+
+        executor = Executors.newSingleThreadScheduledExecutor((r) ->
+        {
+            Thread thread = new Thread(r, "es-node-sniffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Discover nodes now and then every "intervalSec" seconds
+     * @param intervalSec time in seconds between node discoveries
+     */
+    public void start(int intervalSec)
+    {
+        executor.scheduleWithFixedDelay(this::sniff, 0, intervalSec, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stop node discovery
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+
+    private void sniff()
+    {
+        try
+        {
+            Request req = new Request("GET", "/_nodes/http");
+            req.addParameter("filter_path", "nodes.*.http.publish_address");
+            Response resp = client.performRequest(req);
+
+            List<Node> nodes = new ArrayList<>();
+            for(String address: parseAddresses(resp))
+            {
+                HttpHost host = parseAddress(address);
+                if(host != null) nodes.add(new Node(host));
+            }
+
+            // Keep the current list if the cluster didn't return any addresses
+            if(nodes.isEmpty())
+            {
+                log.warn("Could not discover Elasticsearch nodes. Will use current node list.");
+                return;
+            }
+
+            if(nodes.size() != client.getNodes().size())
+            {
+                log.info("Discovered " + nodes.size() + " Elasticsearch node(s)");
+            }
+
+            client.setNodes(nodes);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not discover Elasticsearch nodes. " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Parse "_nodes/http" response, e.g.,
+     * {"nodes": {"node_id": {"http": {"publish_address": "10.0.0.1:9200"}}, ...}}
+     */
+    private static List<String> parseAddresses(Response resp) throws Exception
+    {
+        List<String> addresses = new ArrayList<>();
+
+        Reader rd = new InputStreamReader(resp.getEntity().getContent(), StandardCharsets.UTF_8);
+        JsonReader jsonReader = new JsonReader(rd);
+
+        try
+        {
+            jsonReader.beginObject();
+            while(jsonReader.hasNext())
+            {
+                String name = jsonReader.nextName();
+                if("nodes".equals(name))
+                {
+                    jsonReader.beginObject();
+                    while(jsonReader.hasNext())
+                    {
+                        jsonReader.nextName();
+                        String address = parseNode(jsonReader);
+                        if(address != null) addresses.add(address);
+                    }
+                    jsonReader.endObject();
+                }
+                else
+                {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+        finally
+        {
+            CloseUtils.close(jsonReader);
+        }
+
+        return addresses;
+    }
+
+
+    private static String parseNode(JsonReader jsonReader) throws Exception
+    {
+        String address = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("http".equals(name))
+            {
+                jsonReader.beginObject();
+                while(jsonReader.hasNext())
+                {
+                    if("publish_address".equals(jsonReader.nextName()))
+                    {
+                        address = jsonReader.nextString();
+                    }
+                    else
+                    {
+                        jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return address;
+    }
+
+
+    /**
+     * Parse publish address. Possible formats are "ip:port", "hostname/ip:port", "[ipv6]:port".
+     * Host name is preferred (SSL certificates are usually issued for host names).
+     */
+    private HttpHost parseAddress(String address)
+    {
+        int idx = address.lastIndexOf(':');
+        if(idx <= 0) return null;
+
+        int port;
+        try
+        {
+            port = Integer.parseInt(address.substring(idx + 1));
+        }
+        catch(NumberFormatException ex)
+        {
+            return null;
+        }
+
+        String host = address.substring(0, idx);
+        idx = host.indexOf('/');
+        if(idx == 0)
+        {
+            host = host.substring(1);
+        }
+        else if(idx > 0)
+        {
+            host = host.substring(0, idx);
+        }
+
+        if(host.startsWith("[") && host.endsWith("]"))
+        {
+            host = host.substring(1, host.length() - 1);
+        }
+
+        return new HttpHost(host, port, scheme);
+    }
+}
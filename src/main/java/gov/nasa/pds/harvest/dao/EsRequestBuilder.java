@@ -49,45 +49,98 @@ public class EsRequestBuilder
 
     
     /**
-     * Create Elasticsearch query to search for product IDs (lidvids)
+     * Create Elasticsearch multi get (_mget) request
      * @param ids Collection of product IDs (lidvids)
-     * @param pageSize Number of records to return. Usually pageSize = ids.size().
      * @return JSON Elasticsearch request
      * @throws Exception Generic exception
      */
-    public String createSearchIdsRequest(Collection<String> ids, int pageSize) throws Exception
+    public String createMultiGetRequest(Collection<String> ids) throws Exception
     {
         if(ids == null || ids.isEmpty()) throw new Exception("Missing ids");
-            
+        
         StringWriter out = new StringWriter();
         JsonWriter writer = createJsonWriter(out);
 
-        // Create ids query
-        writer.beginObject();
-
-        // Exclude source from response
-        writer.name("_source").value(false);
-        writer.name("size").value(pageSize);
-
-        writer.name("query");
         writer.beginObject();
         writer.name("ids");
-        writer.beginObject();
-        
-        writer.name("values");
         writer.beginArray();
         for(String id: ids)
         {
             writer.value(id);
         }
         writer.endArray();
-        
         writer.endObject();
+
+        writer.close();
+        return out.toString();
+    }
+
+    
+    /**
+     * Create Elasticsearch query to list all product IDs (lidvids) with scroll API.
+     * Source is excluded from response. Documents are sorted by "_doc" (most efficient order).
+     * @param pageSize Number of records in each page
+     * @return JSON Elasticsearch request
+     * @throws Exception Generic exception
+     */
+    public String createScrollIdsRequest(int pageSize) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("_source").value(false);
+        writer.name("size").value(pageSize);
+        
+        writer.name("sort");
+        writer.beginArray();
+        writer.value("_doc");
+        writer.endArray();
         writer.endObject();
+
+        writer.close();
+        return out.toString();
+    }
+
+    
+    /**
+     * Create Elasticsearch request to get next page of scroll results
+     * @param scrollId Scroll ID returned by previous request
+     * @param keepAlive How long to keep the search context alive, e.g., "5m"
+     * @return JSON Elasticsearch request
+     * @throws Exception Generic exception
+     */
+    public String createScrollRequest(String scrollId, String keepAlive) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("scroll").value(keepAlive);
+        writer.name("scroll_id").value(scrollId);
         writer.endObject();
 
         writer.close();
         return out.toString();
     }
 
+    
+    /**
+     * Create Elasticsearch request to release scroll search context
+     * @param scrollId Scroll ID
+     * @return JSON Elasticsearch request
+     * @throws Exception Generic exception
+     */
+    public String createClearScrollRequest(String scrollId) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("scroll_id").value(scrollId);
+        writer.endObject();
+
+        writer.close();
+        return out.toString();
+    }
 }
@@ -0,0 +1,351 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Looks up documents by ID (lidvid) with Elasticsearch multi get (_mget) API.
+ * <p>
+ * IDs are split into chunks, and up to "concurrency" chunks are requested
+ * at the same time. Unlike "ids" search query, there is no limit on the number of IDs
+ * ("index.max_result_window"). Responses are parsed as a stream.
+ * </p>
+ * This class is thread-safe.
+ */
+public class MultiGetLookup
+{
+    private RestClient client;
+    private String indexName;
+    private EsRequestBuilder requestBld;
+
+    private int chunkSize = 500;
+    private int concurrency = 4;
+
+    // Statistics
+    private AtomicLong numRequests = new AtomicLong();
+    private AtomicLong numIds = new AtomicLong();
+    private AtomicLong numFound = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client
+     * @param indexName Elasticsearch index name, e.g., "registry".
+     */
+    public MultiGetLookup(RestClient client, String indexName)
+    {
+        this.client = client;
+        this.indexName = indexName;
+        requestBld = new EsRequestBuilder();
+
+        StatsRegistry.register("lookup", this::getStats);
+    }
+
+
+    /**
+     * Configure chunking. Call before any lookups.
+     * @param chunkSize max number of IDs in one request
+     * @param concurrency max number of requests sent at the same time
+     */
+    public void setChunking(int chunkSize, int concurrency)
+    {
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.concurrency = Math.max(concurrency, 1);
+    }
+
+
+    /**
+     * Look up documents by ID
+     * @param ids document IDs (lidvids)
+     * @param field source field to return. If null, source is not returned.
+     * @return Map of ID to the first value of the field (or null if the document doesn't have the field
+     * or the field is not requested). Only IDs of existing documents are included.
+     * @throws Exception an exception
+     */
+    public Map<String, String> lookup(Collection<String> ids, String field) throws Exception
+    {
+        Map<String, String> found = new HashMap<>();
+        if(ids == null || ids.isEmpty()) return found;
+
+        List<List<String>> chunks = split(ids);
+        List<CompletableFuture<Response>> futures = sendAll(chunks, field);
+
+        // Parse responses on the caller's thread. Report the first error
+        // after all requests are completed.
+        Exception error = null;
+        for(CompletableFuture<Response> future: futures)
+        {
+            try
+            {
+                parseResponse(future.get(), field, found);
+            }
+            catch(ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                if(error == null) error = (cause instanceof Exception) ? (Exception)cause : ex;
+            }
+            catch(InterruptedException ex)
+            {
+                throw ex;
+            }
+            catch(Exception ex)
+            {
+                // Could not parse the response
+                if(error == null) error = ex;
+            }
+        }
+
+        if(error != null) throw error;
+
+        numIds.addAndGet(ids.size());
+        numFound.addAndGet(found.size());
+
+        return found;
+    }
+
+
+    private List<List<String>> split(Collection<String> ids)
+    {
+        List<List<String>> chunks = new ArrayList<>();
+
+        List<String> chunk = new ArrayList<>(Math.min(chunkSize, ids.size()));
+        for(String id: ids)
+        {
+            if(chunk.size() >= chunkSize)
+            {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+
+            chunk.add(id);
+        }
+
+        chunks.add(chunk);
+        return chunks;
+    }
+
+
+    private List<CompletableFuture<Response>> sendAll(List<List<String>> chunks, String field) throws Exception
+    {
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<Response>> futures = new ArrayList<>(chunks.size());
+
+        for(List<String> chunk: chunks)
+        {
+            permits.acquire();
+
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            future.whenComplete((resp, ex) -> permits.release());
+            futures.add(future);
+            numRequests.incrementAndGet();
+
+            Request req = new Request("POST", "/" + indexName + "/_mget");
+            if(field == null)
+            {
+                req.addParameter("_source", "false");
+            }
+            else
+            {
+                req.addParameter("_source_includes", field);
+            }
+            req.setJsonEntity(requestBld.createMultiGetRequest(chunk));
+
+            client.performRequestAsync(req, new ResponseListener()
+            {
+                @Override
+                public void onSuccess(Response resp)
+                {
+                    future.complete(resp);
+                }
+
+                @Override
+                public void onFailure(Exception ex)
+                {
+                    future.completeExceptionally(ex);
+                }
+            });
+        }
+
+        return futures;
+    }
+
+
+    /**
+     * Parse _mget response, e.g.,
+     * {"docs": [{"_id": "...", "found": true, "_source": {...}}, {"_id": "...", "found": false}]}
+     */
+    private static void parseResponse(Response resp, String field, Map<String, String> found) throws Exception
+    {
+        Reader rd = new InputStreamReader(resp.getEntity().getContent(), StandardCharsets.UTF_8);
+        JsonReader jsonReader = new JsonReader(rd);
+
+        try
+        {
+            jsonReader.beginObject();
+            while(jsonReader.hasNext())
+            {
+                String name = jsonReader.nextName();
+                if("docs".equals(name))
+                {
+                    jsonReader.beginArray();
+                    while(jsonReader.hasNext())
+                    {
+                        parseDoc(jsonReader, field, found);
+                    }
+                    jsonReader.endArray();
+                }
+                else
+                {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+        finally
+        {
+            CloseUtils.close(jsonReader);
+        }
+    }
+
+
+    private static void parseDoc(JsonReader jsonReader, String field, Map<String, String> found) throws Exception
+    {
+        String id = null;
+        boolean exists = false;
+        String value = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("_id".equals(name))
+            {
+                id = jsonReader.nextString();
+            }
+            else if("found".equals(name))
+            {
+                exists = jsonReader.nextBoolean();
+            }
+            else if("_source".equals(name))
+            {
+                value = parseSource(jsonReader, field);
+            }
+            else if("error".equals(name))
+            {
+                // E.g., the index doesn't exist
+                String msg = String.format("Could not get document %s. %s", id, parseError(jsonReader));
+                throw new Exception(msg);
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        if(exists && id != null)
+        {
+            found.put(id, value);
+        }
+    }
+
+
+    /**
+     * Get first value of a source field. Registry fields could be single values or arrays.
+     */
+    private static String parseSource(JsonReader jsonReader, String field) throws Exception
+    {
+        String value = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if(name.equals(field) && jsonReader.peek() == JsonToken.STRING)
+            {
+                value = jsonReader.nextString();
+            }
+            else if(name.equals(field) && jsonReader.peek() == JsonToken.BEGIN_ARRAY)
+            {
+                jsonReader.beginArray();
+                while(jsonReader.hasNext())
+                {
+                    if(value == null && jsonReader.peek() == JsonToken.STRING) value = jsonReader.nextString();
+                    else jsonReader.skipValue();
+                }
+                jsonReader.endArray();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return value;
+    }
+
+
+    private static String parseError(JsonReader jsonReader) throws Exception
+    {
+        if(jsonReader.peek() != JsonToken.BEGIN_OBJECT)
+        {
+            return jsonReader.nextString();
+        }
+
+        String reason = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("reason".equals(name))
+            {
+                reason = jsonReader.nextString();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return reason;
+    }
+
+
+    private Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chunkSize", chunkSize);
+        stats.put("concurrency", concurrency);
+        stats.put("requests", numRequests.get());
+        stats.put("ids", numIds.get());
+        stats.put("found", numFound.get());
+
+        return stats;
+    }
+}
@@ -2,16 +2,15 @@ package gov.nasa.pds.harvest.dao;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.function.Consumer;
 
 import org.elasticsearch.client.Request;
-import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 
-import gov.nasa.pds.registry.common.es.client.SearchResponseParser;
-
 
 /**
  * Elasticsearch "registry" index Data Access Object (DAO).
@@ -20,12 +19,17 @@ import gov.nasa.pds.registry.common.es.client.SearchResponseParser;
  */
 public class RegistryDao
 {
+    /**
+     * Label file MD5 checksum field
+     */
+    public static final String FIELD_LABEL_MD5 = "ops:Label_File_Info/ops:md5_checksum";
+    
     private RestClient client;
     private String indexName;
     private boolean pretty;
 
     private EsRequestBuilder requestBld;
-    private SearchResponseParser parser;
+    private MultiGetLookup lookup;
     
     
     /**
@@ -52,7 +56,18 @@ public class RegistryDao
         this.pretty = pretty;
         
         requestBld = new EsRequestBuilder();
-        parser = new SearchResponseParser();
+        lookup = new MultiGetLookup(client, indexName);
+    }
+
+    
+    /**
+     * Configure chunking of product ID lookups. Call before any lookups.
+     * @param chunkSize max number of IDs in one request
+     * @param concurrency max number of requests of one lookup sent at the same time
+     */
+    public void setLookupChunking(int chunkSize, int concurrency)
+    {
+        lookup.setChunking(chunkSize, concurrency);
     }
 
     
@@ -81,32 +96,87 @@ public class RegistryDao
      */
     public Set<String> getNonExistingIds(Collection<String> ids) throws Exception
     {
-        if(ids == null) return new TreeSet<String>();
+        if(ids == null) return new HashSet<String>();
         
-        Response resp = searchIds(ids, ids.size());
-
-        NonExistingIdsResponse idsResp = new NonExistingIdsResponse(ids);
-        parser.parseResponse(resp, idsResp);
-
-        return idsResp.getIds();
+        Map<String, String> existingIds = lookup.lookup(ids, null);
+        
+        Set<String> retIds = new HashSet<>(ids);
+        retIds.removeAll(existingIds.keySet());
+        return retIds;
     }
     
     
-    private Response searchIds(Collection<String> ids, int pageSize) throws Exception
+    /**
+     * Get label file MD5 checksums ("ops:Label_File_Info/ops:md5_checksum" field)
+     * of registered products.
+     * @param ids Product IDs (lidvids)
+     * @return Map of product ID (lidvid) to label MD5 checksum. 
+     * Products which don't exist in Elasticsearch "registry" collection are not included.
+     * @throws Exception Generic exception
+     */
+    public Map<String, String> getLabelChecksums(Collection<String> ids) throws Exception
     {
-        if(pageSize < ids.size()) throw new IllegalArgumentException("Page size is less than ids size");
-
-        String json = requestBld.createSearchIdsRequest(ids, pageSize);
+        Map<String, String> checksums = lookup.lookup(ids, FIELD_LABEL_MD5);
         
-        String reqUrl = "/" + indexName + "/_search";
-        if(pretty) reqUrl += "?pretty";
+        // Products without checksum field are treated as changed
+        checksums.values().removeIf(md5 -> md5 == null);
+        return checksums;
+    }
+    
+    
+    /**
+     * List all product IDs (lidvids) of "registry" index with Elasticsearch scroll API.
+     * @param pageSize Number of IDs in each scroll page
+     * @param callback receives each product ID (lidvid)
+     * @return Number of product IDs
+     * @throws Exception Generic exception
+     */
+    public long scrollIds(int pageSize, Consumer<String> callback) throws Exception
+    {
+        final String keepAlive = "5m";
         
-        Request req = new Request("GET", reqUrl);
-        req.setJsonEntity(json);
-        Response resp = client.performRequest(req);
-
-        return resp;
+        Request req = new Request("POST", "/" + indexName + "/_search?scroll=" + keepAlive);
+        req.setJsonEntity(requestBld.createScrollIdsRequest(pageSize));
+        ScrollIdsResponse page = ScrollIdsResponse.parse(client.performRequest(req), callback);
+        
+        long numIds = page.numIds;
+        String scrollId = page.scrollId;
+        
+        try
+        {
+            while(page.numIds > 0 && page.scrollId != null)
+            {
+                req = new Request("POST", "/_search/scroll");
+                req.setJsonEntity(requestBld.createScrollRequest(page.scrollId, keepAlive));
+                page = ScrollIdsResponse.parse(client.performRequest(req), callback);
+                
+                numIds += page.numIds;
+                if(page.scrollId != null) scrollId = page.scrollId;
+            }
+        }
+        finally
+        {
+            clearScroll(scrollId);
+        }
+        
+        return numIds;
     }
- 
     
+    
+    private void clearScroll(String scrollId)
+    {
+        if(scrollId == null) return;
+        
+        try
+        {
+            Request req = new Request("DELETE", "/_search/scroll");
+            req.setJsonEntity(requestBld.createClearScrollRequest(scrollId));
+            client.performRequest(req);
+        }
+        catch(Exception ex)
+        {
+            // Ignore. Search context will expire.
+        }
+    }
+
 }
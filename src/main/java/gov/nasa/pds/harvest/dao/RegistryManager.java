@@ -1,11 +1,16 @@
 package gov.nasa.pds.harvest.dao;
 
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RestClient;
 
+import gov.nasa.pds.harvest.cfg.EsClientCfg;
 import gov.nasa.pds.registry.common.cfg.RegistryCfg;
-import gov.nasa.pds.registry.common.es.client.EsClientFactory;
 import gov.nasa.pds.registry.common.es.dao.ProductDao;
 import gov.nasa.pds.registry.common.es.dao.dd.DataDictionaryDao;
 import gov.nasa.pds.registry.common.es.dao.schema.SchemaDao;
@@ -31,12 +36,17 @@ public class RegistryManager
     
     // Elasticsearch client
     private RestClient esClient;
+    // Retry / circuit breaker policy of all Elasticsearch calls
+    private EsCallPolicy callPolicy;
+    // Discovers cluster nodes. Null if disabled.
+    private EsNodeSniffer nodeSniffer;
     
     // DAOs
     private RegistryDao registryDao;
     private SchemaDao schemaDao;
     private DataDictionaryDao ddDao;
     private ProductDao productDao;
+    private BulkLoader bulkLoader;
     
     // Services
     private ProductService productService;    
@@ -46,14 +56,27 @@ public class RegistryManager
     /**
      * Private constructor. Use getInstance() instead.
      * @param cfg Registry (Elasticsearch) configuration parameters.
+     * @param clientCfg Elasticsearch HTTP client configuration.
      * @throws Exception Generic exception
      */
-    private RegistryManager(RegistryCfg cfg) throws Exception
+    private RegistryManager(RegistryCfg cfg, EsClientCfg clientCfg) throws Exception
     {
         this.cfg = cfg;
         if(cfg.url == null || cfg.url.isEmpty()) throw new IllegalArgumentException("Missing Registry URL");
         
-        esClient = EsClientFactory.createRestClient(cfg.url, cfg.authFile);
+        // One client (connection pool) is shared by all DAOs
+        List<String> urls = clientCfg.urls.isEmpty() ? Collections.singletonList(cfg.url) : clientCfg.urls;
+        EsClientBuilder clientBld = new EsClientBuilder(urls, clientCfg);
+        clientBld.configureAuth(cfg.authFile);
+        clientBld.setNodeMonitor(new EsNodeMonitor(clientCfg.nodeBlacklistSec));
+        esClient = clientBld.build();
+        
+        if(clientCfg.sniffIntervalSec > 0)
+        {
+            nodeSniffer = new EsNodeSniffer(esClient, new URL(urls.get(0)).getProtocol());
+            nodeSniffer.start(clientCfg.sniffIntervalSec);
+        }
+        callPolicy = new EsCallPolicy(() -> esClient.performRequest(new Request("GET", "/")));
         
         String indexName = cfg.indexName;
         if(indexName == null || indexName.isEmpty()) 
@@ -62,14 +85,17 @@ public class RegistryManager
         }
 
         Logger log = LogManager.getLogger(this.getClass());
-        log.info("Registry URL: " + cfg.url);
+        log.info("Registry URL: " + String.join(", ", urls));
         log.info("Registry index: " + indexName);
+        log.info("Registry client: gzip = " + clientCfg.gzip + ", max connections = " + clientCfg.maxConnections 
+                + ", socket timeout = " + clientCfg.socketTimeoutSec + " sec");
         
         // DAOs
         registryDao = new RegistryDao(esClient, indexName);
         schemaDao = new SchemaDao(esClient, indexName);
         ddDao = new DataDictionaryDao(esClient, indexName);
         productDao = new ProductDao(esClient, indexName);
+        bulkLoader = new BulkLoader(esClient, indexName, callPolicy);
         
         // Services
         productService = new ProductService(productDao);
@@ -84,7 +110,19 @@ public class RegistryManager
      */
     public static void init(RegistryCfg cfg) throws Exception
     {
-        instance = new RegistryManager(cfg);
+        init(cfg, new EsClientCfg());
+    }
+    
+    
+    /**
+     * Initialize the singleton.
+     * @param cfg Registry (Elasticsearch) configuration parameters.
+     * @param clientCfg Elasticsearch HTTP client configuration.
+     * @throws Exception Generic exception
+     */
+    public static void init(RegistryCfg cfg, EsClientCfg clientCfg) throws Exception
+    {
+        instance = new RegistryManager(cfg, clientCfg);
     }
     
     
@@ -95,6 +133,8 @@ public class RegistryManager
     {
         if(instance == null) return;
         
+        instance.callPolicy.close();
+        if(instance.nodeSniffer != null) instance.nodeSniffer.close();
         CloseUtils.close(instance.esClient);
         instance = null;
     }
@@ -110,6 +150,16 @@ public class RegistryManager
     }
     
     
+    /**
+     * Get retry / circuit breaker policy shared by all Elasticsearch calls.
+     * @return Elasticsearch call policy
+     */
+    public EsCallPolicy getCallPolicy()
+    {
+        return callPolicy;
+    }
+    
+    
     /**
      * Get registry DAO object.
      * @return Registry DAO
@@ -150,6 +200,16 @@ public class RegistryManager
     }
 
     
+    /**
+     * Get bulk loader object.
+     * @return Bulk loader
+     */
+    public BulkLoader getBulkLoader()
+    {
+        return bulkLoader;
+    }
+
+    
     /**
      * Get product service object
      * @return product service
@@ -1,13 +1,19 @@
 package gov.nasa.pds.harvest.dao;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import gov.nasa.pds.harvest.util.ThreadUtils;
+import gov.nasa.pds.harvest.cache.ChecksumCache;
+import gov.nasa.pds.harvest.cache.LidvidCache;
+import gov.nasa.pds.harvest.cache.LidvidIndex;
+import gov.nasa.pds.harvest.util.Md5Utils;
 import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
 
 /**
@@ -16,8 +22,6 @@ import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
  */
 public class RegistryService
 {
-    private static int MAX_RETRIES = 5;
-    
     private Logger log;
     
 
@@ -43,45 +47,143 @@ public class RegistryService
 
         RegistryDao dao = RegistryManager.getInstance().getRegistryDao();
 
+        // Products recently loaded or found by this process are registered.
+        // Only check other products in Elasticsearch.
+        LidvidCache lidvidCache = LidvidCache.getInstance();
+        List<String> idsToCheck = msg.lidvids;
+        if(lidvidCache != null)
+        {
+            idsToCheck = lidvidCache.getUnknownIds(msg.lidvids);
+            if(idsToCheck.isEmpty()) return fileList;
+        }
+        
+        // Products not in LIDVID index are definitely not registered.
+        // Only confirm possibly registered products in Elasticsearch.
+        Set<String> newIds = new HashSet<>();
+        LidvidIndex lidvidIndex = LidvidIndex.getInstance();
+        if(lidvidIndex != null && lidvidIndex.isReady())
+        {
+            List<String> possiblyRegisteredIds = new ArrayList<>();
+            for(String id: idsToCheck)
+            {
+                if(lidvidIndex.mightContain(id)) possiblyRegisteredIds.add(id);
+                else newIds.add(id);
+            }
+            
+            idsToCheck = possiblyRegisteredIds;
+        }
+        else
+        {
+            lidvidIndex = null;
+        }
+        
         // Call Elasticsearch to get unregistered products.
-        // Retry MAX_RETRIES times on an error.
-        int retries = 0;
-        while(true)
+        // Transient errors are retried by the call policy.
+        Set<String> nonRegisteredIds;
+        try
+        {
+            final List<String> ids = idsToCheck;
+            nonRegisteredIds = ids.isEmpty() ? new HashSet<>() : 
+                RegistryManager.getInstance().getCallPolicy().call("_mget", () -> dao.getNonExistingIds(ids));
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not call Elasticsearch. " + ex);
+            return null;
+        }
+        
+        if(lidvidCache != null)
+        {
+            List<String> registeredIds = new ArrayList<>(idsToCheck);
+            registeredIds.removeAll(nonRegisteredIds);
+            lidvidCache.addAll(registeredIds);
+        }
+        
+        if(lidvidIndex != null)
         {
-            try
+            lidvidIndex.addFalsePositives(nonRegisteredIds.size());
+        }
+        
+        nonRegisteredIds.addAll(newIds);
+        if(nonRegisteredIds.isEmpty()) return fileList;
+        
+        for(int i = 0; i < msg.lidvids.size(); i++)
+        {
+            String id = msg.lidvids.get(i);
+            if(nonRegisteredIds.contains(id))
             {
-                Set<String> nonRegisteredIds = dao.getNonExistingIds(msg.lidvids);
-                if(nonRegisteredIds.isEmpty()) return fileList;
-                
-                for(int i = 0; i < msg.lidvids.size(); i++)
-                {
-                    String id = msg.lidvids.get(i);
-                    if(nonRegisteredIds.contains(id))
-                    {
-                        fileList.add(msg.files.get(i));
-                    }
-                }
-                
-                return fileList;
+                fileList.add(msg.files.get(i));
             }
-            catch(Exception ex)
+        }
+        
+        return fileList;
+    }
+
+    
+    /**
+     * Call Elasticsearch to get label MD5 checksums of registered LIDVIDs from the file message
+     * and return paths of new and changed label files. Unchanged labels are skipped.
+     * @param msg file message containing a batch of LIDVIDs and
+     * corresponding file paths
+     * @return a list of new or changed file paths. In case of an error return null.
+     */
+    public List<String> getChangedFiles(ProductMessage msg)
+    {
+        RegistryDao dao = RegistryManager.getInstance().getRegistryDao();
+
+        // Call Elasticsearch to get label checksums of registered products.
+        // Transient errors are retried by the call policy.
+        Map<String, String> checksums;
+        try
+        {
+            checksums = RegistryManager.getInstance().getCallPolicy().call("_mget", 
+                    () -> dao.getLabelChecksums(msg.lidvids));
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not call Elasticsearch. " + ex);
+            return null;
+        }
+        
+        // Compare with local files
+        List<String> fileList = new ArrayList<>();
+        for(int i = 0; i < msg.lidvids.size(); i++)
+        {
+            String storedMd5 = checksums.get(msg.lidvids.get(i));
+            String strFile = msg.files.get(i);
+            
+            if(storedMd5 == null || !storedMd5.equalsIgnoreCase(getMd5(strFile)))
             {
-                if(retries >= MAX_RETRIES)
-                {
-                    log.error("Could not call Elasticsearch. " + ex);
-                    break;
-                }
-                else
-                {
-                    retries++;
-                    log.error("Could not call Elasticsearch. " + ex + ". Will retry in 10 sec.");
-                    ThreadUtils.sleepSec(10);
-                }
+                fileList.add(strFile);
             }
         }
 
-        // If we got here, there was an error.
-        return null;
+        int numUnchanged = msg.files.size() - fileList.size();
+        if(numUnchanged > 0)
+        {
+            log.info("Skipping " + numUnchanged + " unchanged label(s)");
+        }
+        
+        return fileList;
+    }
+    
+    
+    /**
+     * Get label MD5. Use the checksum cache (if enabled), so labels which didn't change 
+     * since the last check (same size and modification time) are not read again.
+     */
+    private String getMd5(String strFile)
+    {
+        try
+        {
+            File file = new File(strFile);
+            ChecksumCache cache = ChecksumCache.getInstance();
+            return (cache != null) ? cache.getMd5(file) : Md5Utils.md5Hex(file);
+        }
+        catch(Exception ex)
+        {
+            // Process this file. Errors are reported by product processor.
+            return null;
+        }
     }
-
 }
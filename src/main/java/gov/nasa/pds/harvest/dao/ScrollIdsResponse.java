@@ -0,0 +1,130 @@
+package gov.nasa.pds.harvest.dao;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.elasticsearch.client.Response;
+
+import com.google.gson.stream.JsonReader;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Helper class to process a page of Elasticsearch scroll response
+ * returning product IDs (lidvids) only. The response is parsed as a stream.
+ */
+public class ScrollIdsResponse
+{
+    /**
+     * Scroll ID to get next page
+     */
+    public String scrollId;
+
+    /**
+     * Number of IDs in this page. 0 - no more pages.
+     */
+    public int numIds;
+
+
+    /**
+     * Parse a page of scroll response
+     * @param resp Elasticsearch response
+     * @param callback receives each product ID (lidvid)
+     * @return parsed response
+     * @throws Exception an exception
+     */
+    public static ScrollIdsResponse parse(Response resp, Consumer<String> callback) throws Exception
+    {
+        ScrollIdsResponse page = new ScrollIdsResponse();
+
+        Reader rd = new InputStreamReader(resp.getEntity().getContent(), StandardCharsets.UTF_8);
+        JsonReader jsonReader = new JsonReader(rd);
+
+        try
+        {
+            jsonReader.beginObject();
+            while(jsonReader.hasNext())
+            {
+                String name = jsonReader.nextName();
+                if("_scroll_id".equals(name))
+                {
+                    page.scrollId = jsonReader.nextString();
+                }
+                else if("hits".equals(name))
+                {
+                    parseHits(jsonReader, page, callback);
+                }
+                else
+                {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+        finally
+        {
+            CloseUtils.close(jsonReader);
+        }
+
+        return page;
+    }
+
+
+    /**
+     * Parse "hits" object: {"total": ..., "hits": [{"_id": "...", ...}, ...]}
+     */
+    private static void parseHits(JsonReader jsonReader, ScrollIdsResponse page,
+            Consumer<String> callback) throws Exception
+    {
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("hits".equals(name))
+            {
+                jsonReader.beginArray();
+                while(jsonReader.hasNext())
+                {
+                    String id = parseId(jsonReader);
+                    if(id != null)
+                    {
+                        callback.accept(id);
+                        page.numIds++;
+                    }
+                }
+                jsonReader.endArray();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+    }
+
+
+    private static String parseId(JsonReader jsonReader) throws Exception
+    {
+        String id = null;
+
+        jsonReader.beginObject();
+        while(jsonReader.hasNext())
+        {
+            String name = jsonReader.nextName();
+            if("_id".equals(name))
+            {
+                id = jsonReader.nextString();
+            }
+            else
+            {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return id;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
 import java.util.jar.Attributes;
 
 import javax.servlet.ServletException;
@@ -16,6 +17,7 @@ import com.google.gson.GsonBuilder;
 
 import gov.nasa.pds.harvest.cfg.Configuration;
 import gov.nasa.pds.harvest.mq.MQClient;
+import gov.nasa.pds.harvest.stats.StatsRegistry;
 import gov.nasa.pds.registry.common.util.ManifestUtils;
 
 
@@ -53,6 +55,8 @@ public class StatusServlet extends HttpServlet
         
         public String usedMemory;
         public String openFiles;
+        
+        public Map<String, Object> stats;
     }
 
     
@@ -109,6 +113,9 @@ public class StatusServlet extends HttpServlet
         // Open files (Unix only)
         info.openFiles = numOpenFiles();
         
+        // Component statistics (retries, caches, etc.)
+        info.stats = StatsRegistry.getStats();
+        
         String jsonStr = gson.toJson(info);
 
         resp.setContentType("application/json");
@@ -0,0 +1,232 @@
+package gov.nasa.pds.harvest.mq;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+
+
+/**
+ * Adaptive (AIMD) limit of Elasticsearch bulk loads.
+ * <p>
+ * The limit is the max number of concurrent bulk loads and the message queue
+ * prefetch count. It grows by one after "limit" successful loads (additive increase)
+ * and is cut in half (multiplicative decrease) when Elasticsearch rejects documents
+ * with 429 / 503 errors, a load fails, or recent latency per document is much higher
+ * than the baseline (the lowest recently observed latency).
+ * </p>
+ * <p>
+ * Listeners are notified when the limit changes, e.g., to update RabbitMQ channel prefetch.
+ * </p>
+ * It doesn't have any message server-specific code (RabbitMQ or ActiveMQ).
+ */
+public class AdaptiveLimiter
+{
+    // Number of recent loads to report on the status page
+    private static final int WINDOW_SIZE = 20;
+    // Overloaded if recent latency is this many times higher than the baseline
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // Weight of the latest sample in recent latency
+    private static final double RECENT_WEIGHT = 0.3;
+    // Baseline slowly "forgets" old minimum, so that it follows slowly changing workload.
+    private static final double BASELINE_DRIFT = 1.01;
+
+    /**
+     * Completed bulk load
+     */
+    @SuppressWarnings("unused")
+    private static class Sample
+    {
+        public long latencyMs;
+        public int numDocs;
+        public boolean congested;
+
+        public Sample(long latencyMs, int numDocs, boolean congested)
+        {
+            this.latencyMs = latencyMs;
+            this.numDocs = numDocs;
+            this.congested = congested;
+        }
+    }
+
+    private Logger log;
+
+    private int minLimit;
+    private int maxLimit;
+    private int limit;
+    private int inFlight;
+
+    // Successful loads since last limit change
+    private int numSuccess;
+    // Don't decrease the limit again until loads started before the last decrease complete
+    private int cooldown;
+
+    // Latency per document (ms)
+    private double baseline = -1;
+    private double recent = -1;
+
+    private LinkedList<Sample> window;
+    private long numIncreases;
+    private long numDecreases;
+
+    private List<IntConsumer> listeners;
+
+
+    /**
+     * Constructor
+     * @param initialLimit initial limit
+     * @param maxLimit max limit
+     */
+    public AdaptiveLimiter(int initialLimit, int maxLimit)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.minLimit = 1;
+        this.maxLimit = Math.max(maxLimit, minLimit);
+        this.limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+
+        window = new LinkedList<>();
+        listeners = new ArrayList<>();
+
+        StatsRegistry.register("adaptive", this::getStats);
+    }
+
+
+    /**
+     * Add a listener. It is called with the new limit every time the limit changes.
+     * @param listener limit listener
+     */
+    public void addListener(IntConsumer listener)
+    {
+        synchronized(listeners)
+        {
+            listeners.add(listener);
+        }
+    }
+
+
+    /**
+     * Get current limit
+     * @return current limit
+     */
+    public synchronized int getLimit()
+    {
+        return limit;
+    }
+
+
+    /**
+     * Wait until the number of concurrent loads is below the limit.
+     * Each call must be followed by a call to release().
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException
+    {
+        while(inFlight >= limit)
+        {
+            wait();
+        }
+
+        inFlight++;
+    }
+
+
+    /**
+     * Report completed load and update the limit.
+     * @param latencyMs load time in milliseconds
+     * @param numDocs number of loaded documents
+     * @param congested true if Elasticsearch rejected some documents
+     * with transient errors (429, 503) or the load failed.
+     */
+    public void release(long latencyMs, int numDocs, boolean congested)
+    {
+        int oldLimit;
+        int newLimit;
+
+        synchronized(this)
+        {
+            inFlight--;
+
+            oldLimit = limit;
+            update(new Sample(latencyMs, numDocs, congested));
+            newLimit = limit;
+
+            notifyAll();
+        }
+
+        if(newLimit != oldLimit)
+        {
+            log.info("Changed adaptive limit from " + oldLimit + " to " + newLimit);
+
+            // Serialize notifications. Always pass the latest limit.
+            synchronized(listeners)
+            {
+                for(IntConsumer listener: listeners)
+                {
+                    listener.accept(getLimit());
+                }
+            }
+        }
+    }
+
+
+    private void update(Sample sample)
+    {
+        window.add(sample);
+        if(window.size() > WINDOW_SIZE) window.removeFirst();
+
+        double latency = (double)sample.latencyMs / Math.max(sample.numDocs, 1);
+        if(!sample.congested)
+        {
+            recent = (recent < 0) ? latency : recent * (1 - RECENT_WEIGHT) + latency * RECENT_WEIGHT;
+            baseline = (baseline < 0) ? latency : Math.min(latency, baseline * BASELINE_DRIFT);
+        }
+
+        if(cooldown > 0) cooldown--;
+
+        boolean overloaded = sample.congested || recent > baseline * LATENCY_TOLERANCE;
+        if(overloaded)
+        {
+            if(cooldown == 0 && limit > minLimit)
+            {
+                cooldown = limit;
+                limit = Math.max(minLimit, limit / 2);
+                numSuccess = 0;
+                numDecreases++;
+            }
+        }
+        else
+        {
+            numSuccess++;
+            if(numSuccess >= limit && limit < maxLimit)
+            {
+                limit++;
+                numSuccess = 0;
+                numIncreases++;
+            }
+        }
+    }
+
+
+    private synchronized Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", limit);
+        stats.put("maxLimit", maxLimit);
+        stats.put("inFlight", inFlight);
+        stats.put("increases", numIncreases);
+        stats.put("decreases", numDecreases);
+        stats.put("baselineMsPerDoc", baseline);
+        stats.put("recentMsPerDoc", recent);
+        stats.put("recentLoads", new ArrayList<>(window));
+
+        return stats;
+    }
+}
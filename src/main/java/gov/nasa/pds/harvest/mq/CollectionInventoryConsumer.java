@@ -59,7 +59,8 @@ public class CollectionInventoryConsumer
             RegistryDao regDao = RegistryManager.getInstance().getRegistryDao();
             try
             {
-                if(regDao.idExists(msg.collectionLidvid))
+                if(RegistryManager.getInstance().getCallPolicy().call("_mget", 
+                        () -> regDao.idExists(msg.collectionLidvid)))
                 {
                     return true;
                 }
@@ -84,7 +85,11 @@ public class CollectionInventoryConsumer
         
         try
         {
-            proc.writeCollectionInventory(msg.collectionLidvid, inventoryFile, msg.jobId);
+            RegistryManager.getInstance().getCallPolicy().call("inventory", () -> 
+            {
+                proc.writeCollectionInventory(msg.collectionLidvid, inventoryFile, msg.jobId);
+                return null;
+            });
             return true;
         }
         catch(Exception ex)
@@ -29,4 +29,10 @@ public interface MQClient
      * @return connection status
      */
     public boolean isConnected();
+    
+    /**
+     * Stop receiving new messages, wait until messages being processed 
+     * are completed (up to drain timeout) and close the connection.
+     */
+    public void close();
 }
@@ -0,0 +1,84 @@
+package gov.nasa.pds.harvest.mq;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Decodes JSON messages directly from message body bytes.
+ * <p>
+ * The body is parsed with a streaming UTF-8 JSON reader. It is not converted 
+ * to an intermediate String, so large product messages (thousands of file paths
+ * and LIDVIDs) are not copied twice.
+ * </p>
+ * <p>
+ * Compressed messages are supported. Set message content encoding to "gzip" or "zstd".
+ * </p>
+ * This class is thread-safe.
+ */
+public class MessageDecoder
+{
+    private Gson gson;
+
+
+    /**
+     * Constructor
+     */
+    public MessageDecoder()
+    {
+        gson = new Gson();
+    }
+
+
+    /**
+     * Decode a message
+     * @param <T> message class
+     * @param body message body
+     * @param contentEncoding message content encoding: null, "identity", "gzip" or "zstd".
+     * @param type message class
+     * @return message object or null if the body is empty
+     * @throws Exception an exception
+     */
+    public <T> T decode(byte[] body, String contentEncoding, Class<T> type) throws Exception
+    {
+        InputStream is = createInputStream(body, contentEncoding);
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        
+        try
+        {
+            return gson.fromJson(jsonReader, type);
+        }
+        finally
+        {
+            CloseUtils.close(jsonReader);
+        }
+    }
+
+
+    private static InputStream createInputStream(byte[] body, String contentEncoding) throws Exception
+    {
+        InputStream is = new ByteArrayInputStream(body);
+        if(contentEncoding == null || contentEncoding.isBlank()) return is;
+        
+        switch(contentEncoding.trim().toLowerCase())
+        {
+        case "identity":
+            return is;
+        case "gzip":
+            return new GZIPInputStream(is);
+        case "zstd":
+            return new ZstdInputStream(is);
+        }
+        
+        throw new Exception("Unsupported content encoding: " + contentEncoding);
+    }
+}
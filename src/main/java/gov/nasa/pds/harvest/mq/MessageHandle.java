@@ -0,0 +1,18 @@
+package gov.nasa.pds.harvest.mq;
+
+/**
+ * Acknowledges or rejects a message received from a message server.
+ * It doesn't have any message server-specific code (RabbitMQ or ActiveMQ).
+ */
+public interface MessageHandle
+{
+    /**
+     * Acknowledge the message (delete from the queue)
+     */
+    public void ack();
+    
+    /**
+     * Reject the message. The message will be redelivered.
+     */
+    public void reject();
+}
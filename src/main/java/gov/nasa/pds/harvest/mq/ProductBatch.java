@@ -0,0 +1,110 @@
+package gov.nasa.pds.harvest.mq;
+
+import java.io.Closeable;
+import java.util.List;
+
+import gov.nasa.pds.harvest.dao.BulkBuffer;
+
+
+/**
+ * Elasticsearch documents extracted from one product message
+ * and ready to be loaded into the registry.
+ * Close the batch after loading to delete temporary files.
+ */
+public class ProductBatch implements Closeable
+{
+    /**
+     * Elasticsearch documents in NDJSON format (action line followed by source line)
+     */
+    public BulkBuffer docs;
+
+    /**
+     * Label file of each document. Used to report rejected documents.
+     * Could be null.
+     */
+    public List<String> files;
+
+
+    /**
+     * Constructor
+     * @param docs Elasticsearch documents in NDJSON format
+     */
+    public ProductBatch(BulkBuffer docs)
+    {
+        this(docs, null);
+    }
+
+
+    /**
+     * Constructor
+     * @param docs Elasticsearch documents in NDJSON format
+     * @param files label file of each document
+     */
+    public ProductBatch(BulkBuffer docs, List<String> files)
+    {
+        this.docs = docs;
+        this.files = files;
+    }
+
+
+    /**
+     * Create an empty batch. Nothing to load into Elasticsearch.
+     * @return empty batch
+     */
+    public static ProductBatch empty()
+    {
+        return new ProductBatch(new BulkBuffer(Long.MAX_VALUE));
+    }
+
+
+    /**
+     * Get number of documents in this batch
+     * @return number of documents
+     */
+    public int size()
+    {
+        return docs == null ? 0 : docs.size();
+    }
+
+
+    /**
+     * Get label file of a document
+     * @param index document index (0, 1, 2...)
+     * @return file path or null
+     */
+    public String getFile(int index)
+    {
+        if(files == null || index < 0 || index >= files.size()) return null;
+        return files.get(index);
+    }
+
+
+    /**
+     * Get size of this batch in bytes
+     * @return size in bytes
+     */
+    public long byteSize()
+    {
+        return docs == null ? 0 : docs.byteSize();
+    }
+
+
+    /**
+     * Check if there is nothing to load
+     * @return true if this batch has no documents
+     */
+    public boolean isEmpty()
+    {
+        return docs == null || docs.isEmpty();
+    }
+
+
+    /**
+     * Release the buffer. Deletes temporary file if documents were spilled to disk.
+     */
+    @Override
+    public void close()
+    {
+        if(docs != null) docs.close();
+    }
+}
@@ -1,18 +1,26 @@
 package gov.nasa.pds.harvest.mq;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import gov.nasa.pds.harvest.cache.LidvidCache;
+import gov.nasa.pds.harvest.cache.LidvidIndex;
 import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.dao.BulkBuffer;
+import gov.nasa.pds.harvest.dao.BulkLoader;
+import gov.nasa.pds.harvest.dao.BulkResult;
+import gov.nasa.pds.harvest.dao.RegistryManager;
 import gov.nasa.pds.harvest.dao.RegistryService;
 import gov.nasa.pds.harvest.job.Job;
 import gov.nasa.pds.harvest.job.JobFactory;
+import gov.nasa.pds.harvest.proc.MissingFieldsBatch;
+import gov.nasa.pds.harvest.proc.ParallelProductProcessor;
 import gov.nasa.pds.harvest.proc.ProductProcessor;
-import gov.nasa.pds.registry.common.cfg.RegistryCfg;
-import gov.nasa.pds.registry.common.es.dao.DataLoader;
 import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
 import gov.nasa.pds.registry.common.util.ExceptionUtils;
 import gov.nasa.pds.registry.common.util.doc.RegistryDocWriter;
@@ -25,30 +33,69 @@ import gov.nasa.pds.registry.common.util.doc.RegistryDocWriter;
  */
 public class ProductConsumer
 {
+    // Used to name label processing threads of each consumer
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+    
     private Logger log;
     private RegistryService registry;
     
     private RegistryDocWriter registryDocWriter;
     private ProductProcessor proc;
-    private DataLoader dataLoader;
+    // Not null if label files of one message are processed in parallel
+    private ParallelProductProcessor parallelProc;
+    // Fields of all documents of a message. Missing fields are added to the schema before loading.
+    private MissingFieldsBatch missingFields;
+    private AdaptiveLimiter limiter;
+    // Overwrite mode: skip labels which didn't change
+    private boolean changedOnly;
+    // Max size of in-memory documents of one batch
+    private long spillThreshold;
 
     
     /**
      * Constructor
      * @param harvestCfg Harvest server configuration
-     * @param registryCfg Registry / Elasticsearch configuration
      * @throws Exception an exception
      */
-    public ProductConsumer(HarvestCfg harvestCfg, RegistryCfg registryCfg) throws Exception
+    public ProductConsumer(HarvestCfg harvestCfg) throws Exception
+    {
+        this(harvestCfg, null);
+    }
+    
+    
+    /**
+     * Constructor
+     * @param harvestCfg Harvest server configuration
+     * @param limiter adaptive limit of concurrent Elasticsearch bulk loads. Could be null.
+     * @throws Exception an exception
+     */
+    public ProductConsumer(HarvestCfg harvestCfg, AdaptiveLimiter limiter) throws Exception
     {
         log = LogManager.getLogger(this.getClass());
+        this.limiter = limiter;
+        this.changedOnly = harvestCfg.overwriteChangedOnly;
+        this.spillThreshold = harvestCfg.bulkSpillThreshold;
         
         registry = new RegistryService();
         
+        missingFields = new MissingFieldsBatch();
         registryDocWriter = new RegistryDocWriter();
-        proc = new ProductProcessor(harvestCfg, registryDocWriter);
+        proc = new ProductProcessor(harvestCfg, registryDocWriter, missingFields);
         
-        dataLoader = new DataLoader(registryCfg.url, registryCfg.indexName, registryCfg.authFile);
+        if(harvestCfg.processThreads > 1)
+        {
+            parallelProc = new ParallelProductProcessor(harvestCfg, harvestCfg.processThreads, 
+                    "label-processor-" + instanceCount.getAndIncrement(), missingFields);
+        }
+    }
+    
+    
+    /**
+     * Stop label processing threads. Call after the consumer is drained.
+     */
+    public void close()
+    {
+        if(parallelProc != null) parallelProc.close();
     }
     
     
@@ -59,14 +106,50 @@ public class ProductConsumer
      */
     public boolean processMessage(ProductMessage msg)
     {
-        if(msg.files == null || msg.files.isEmpty()) return true;
+        ProductBatch batch = prepare(msg);
+        if(batch == null) return false;
+        
+        try
+        {
+            return load(batch);
+        }
+        finally
+        {
+            batch.close();
+        }
+    }
+
+    
+    /**
+     * Extract metadata from all unregistered (or all, if overwrite flag is set)
+     * products of a product message and convert it to Elasticsearch documents.
+     * <p>
+     * NOTE: prepare() and load() may run on different threads, but each of them
+     * must not be called concurrently with itself.
+     * </p>
+     * @param msg product message
+     * @return a batch of Elasticsearch documents (could be empty). 
+     * Null if the message could not be processed and has to be re-queued.
+     */
+    public ProductBatch prepare(ProductMessage msg)
+    {
+        if(msg.files == null || msg.files.isEmpty()) return ProductBatch.empty();
 
         log.info("Processing batch of " + msg.files.size() + " products: " + msg.files.get(0) + ", ...");
         
         List<String> filesToProcess;
         
+        // Process new and changed products overwriting already registered products
+        if(msg.overwrite && changedOnly)
+        {
+            filesToProcess = registry.getChangedFiles(msg);
+            // There was an error. Reject the message.
+            if(filesToProcess == null) return null;
+            // All labels from this message are unchanged. Ack the message.
+            if(filesToProcess.isEmpty()) return ProductBatch.empty();
+        }
         // Process all products overwriting already registered products
-        if(msg.overwrite)
+        else if(msg.overwrite)
         {
             filesToProcess = msg.files; 
         }
@@ -75,28 +158,70 @@ public class ProductConsumer
         {
             filesToProcess = registry.getUnregisteredFiles(msg);
             // There was an error. Reject the message.
-            if(filesToProcess == null) return false;
+            if(filesToProcess == null) return null;
             // All products from this message are already registered. Ack the message.
-            if(filesToProcess.isEmpty()) return true;
+            if(filesToProcess.isEmpty()) return ProductBatch.empty();
         }
 
         // Harvest files
         Job job = JobFactory.createJob(msg);
-        boolean status = harvestFiles(filesToProcess, job);
+        missingFields.clear();
+        ProductBatch batch = harvestFiles(filesToProcess, job);
+        if(batch == null) return null;
         
-        return status;
+        // Add fields missing from Elasticsearch schema. One update for the whole message.
+        List<MissingFieldsBatch.DeferredDoc> deferredDocs;
+        try
+        {
+            deferredDocs = missingFields.flush();
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not update Elasticsearch schema. " + ExceptionUtils.getMessage(ex));
+            batch.close();
+            return null;
+        }
+        
+        // Documents with new fields are written after the schema update
+        // (date and boolean values are normalized by field type).
+        for(MissingFieldsBatch.DeferredDoc doc: deferredDocs)
+        {
+            registryDocWriter.clearData();
+            
+            try
+            {
+                proc.write(doc.meta, doc.jobId);
+            }
+            catch(Exception ex)
+            {
+                log.error("Could not process file " + doc.file + ": " + ExceptionUtils.getMessage(ex));
+                // Ignore this file
+            }
+            
+            if(!addDocs(batch, doc.file, registryDocWriter.getData())) return null;
+        }
+        
+        registryDocWriter.clearData();
+        return batch;
     }
 
     
-    private boolean harvestFiles(List<String> filesToProcess, Job job)
+    private ProductBatch harvestFiles(List<String> filesToProcess, Job job)
     {
-        // Clear cached batch of Elasticsearch JSON documents
-        registryDocWriter.clearData();
+        if(parallelProc != null && filesToProcess.size() > 1)
+        {
+            return harvestFilesParallel(filesToProcess, job);
+        }
+        
+        // Documents of the whole message. Spilled to disk if too big.
+        ProductBatch batch = new ProductBatch(new BulkBuffer(spillThreshold), 
+                new ArrayList<>(filesToProcess.size()));
         
         // Add Elasticsearch JSON documents to the batch
         for(String strFile: filesToProcess)
         {
             File file = new File(strFile);
+            registryDocWriter.clearData();
             
             try
             {
@@ -107,21 +232,137 @@ public class ProductConsumer
                 log.error("Could not process file " + file.getAbsolutePath() + ": " + ExceptionUtils.getMessage(ex));
                 // Ignore this file
             }
+            
+            // Move documents of this file to the batch. The writer is reused for the next file.
+            if(!addDocs(batch, strFile, registryDocWriter.getData())) return null;
+        }
+        
+        registryDocWriter.clearData();
+        return batch;
+    }
+    
+    
+    private ProductBatch harvestFilesParallel(List<String> filesToProcess, Job job)
+    {
+        ProductBatch batch = new ProductBatch(new BulkBuffer(spillThreshold), 
+                new ArrayList<>(filesToProcess.size()));
+        
+        try
+        {
+            // Results are returned in the same order as files are listed in the message
+            parallelProc.processFiles(filesToProcess, job, (index, fileDocs) -> 
+            {
+                if(!addDocs(batch, filesToProcess.get(index), fileDocs)) 
+                {
+                    throw new Exception("Could not buffer documents.");
+                }
+            });
+        }
+        catch(InterruptedException ex)
+        {
+            // Shutting down. The message will be redelivered.
+            Thread.currentThread().interrupt();
+            batch.close();
+            return null;
+        }
+        catch(Exception ex)
+        {
+            batch.close();
+            return null;
+        }
+        
+        return batch;
+    }
+    
+    
+    /**
+     * Add documents of one label file to the batch
+     * @return false if documents could not be added (e.g., the disk is full). 
+     * The batch is closed in this case.
+     */
+    private boolean addDocs(ProductBatch batch, String file, List<String> fileDocs)
+    {
+        try
+        {
+            batch.docs.addAll(fileDocs);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not buffer documents. " + ExceptionUtils.getMessage(ex));
+            batch.close();
+            return false;
+        }
+        
+        // Each document has an action line and a source line
+        for(int i = 0; i < fileDocs.size() / 2; i++)
+        {
+            batch.files.add(file);
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Load a batch of documents into Elasticsearch.
+     * Documents permanently rejected by Elasticsearch (e.g., because of a mapping conflict)
+     * are logged with the reason and don't cause re-queueing of the message.
+     * @param batch a batch of Elasticsearch documents
+     * @return true if the data was loaded. False if the message has to be re-queued.
+     */
+    public boolean load(ProductBatch batch)
+    {
+        if(batch.isEmpty()) return true;
+        
+        if(limiter != null)
+        {
+            try
+            {
+                limiter.acquire();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
-                
-        // Load the data into Elasticsearch
+        
+        long startTime = System.currentTimeMillis();
+        boolean congested = true;
+        
         try
         {
             log.info("Loading data.");
-            List<String> data = registryDocWriter.getData();
-            int numRecords = dataLoader.loadBatch(data);
-            log.info("Loaded " + numRecords + " products.");
+            BulkLoader loader = RegistryManager.getInstance().getBulkLoader();
+            // Transient errors are retried by the bulk loader
+            BulkResult result = loader.load(batch.docs);
+            log.info("Loaded " + result.numLoaded + " products.");
+            
+            // Don't check these products in Elasticsearch if they are sent again
+            LidvidCache lidvidCache = LidvidCache.getInstance();
+            if(lidvidCache != null) lidvidCache.addAll(result.loadedIds);
+            LidvidIndex lidvidIndex = LidvidIndex.getInstance();
+            if(lidvidIndex != null) lidvidIndex.addAll(result.loadedIds);
+            congested = (result.numThrottled > 0);
+            
+            for(BulkResult.Failure failure: result.failures)
+            {
+                log.error("Elasticsearch rejected product " + failure.id + " (file " + batch.getFile(failure.index) 
+                    + "): " + failure.reason);
+            }
         }
         catch(Exception ex)
         {
             log.error("Could not load data into Elasticsearch." + ExceptionUtils.getMessage(ex));
             return false;
         }
+        finally
+        {
+            if(limiter != null)
+            {
+                limiter.release(System.currentTimeMillis() - startTime, batch.size(), congested);
+            }
+        }
         
         return true;
     }
@@ -0,0 +1,387 @@
+package gov.nasa.pds.harvest.mq;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.dao.BulkBuffer;
+import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Two-stage product message pipeline.
+ * The "prepare" thread parses PDS labels of message N+1 while
+ * the "load" thread loads documents of message N into Elasticsearch.
+ * <p>
+ * If batching is enabled, the "load" thread combines documents from several
+ * messages of the same job into one bulk request. The request is sent when
+ * it reaches max number of documents or max size, or when the oldest message
+ * waited longer than linger time. All messages of a combined request are 
+ * acknowledged only after the request succeeds.
+ * </p>
+ * <p>
+ * Messages are acknowledged or rejected through their message handles
+ * in the order they are completed. It is up to the message handle implementation
+ * to keep acknowledgements consistent with the delivery order.
+ * </p>
+ * It doesn't have any message server-specific code (RabbitMQ or ActiveMQ).
+ */
+public class ProductPipeline
+{
+    /**
+     * A message and its processing state
+     */
+    private static class Item
+    {
+        public ProductMessage msg;
+        public MessageHandle handle;
+        public ProductBatch batch;
+
+        public Item(ProductMessage msg, MessageHandle handle)
+        {
+            this.msg = msg;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * Messages of one job waiting to be loaded in one bulk request
+     */
+    private static class Group
+    {
+        public List<Item> items = new ArrayList<>();
+        public int numDocs;
+        public long numBytes;
+        public long deadline;
+    }
+
+    // Tells worker threads to exit
+    private static final Item STOP = new Item(null, null);
+
+    private Logger log;
+    private ProductConsumer consumer;
+
+    private BlockingQueue<Item> prepareQueue;
+    private BlockingQueue<Item> loadQueue;
+
+    private Thread prepareThread;
+    private Thread loadThread;
+
+    // Batching
+    private int batchMaxDocs;
+    private long batchMaxBytes;
+    private int batchLingerMs;
+    private long spillThreshold;
+    // Job ID -> group of messages
+    private Map<String, Group> groups;
+
+
+    /**
+     * Constructor
+     * @param consumer generic product consumer
+     * @param cfg Harvest configuration (batching parameters)
+     * @param capacity Max number of messages waiting to be processed.
+     * Usually the same as message queue prefetch count.
+     * @param name pipeline name. Used to name worker threads.
+     */
+    public ProductPipeline(ProductConsumer consumer, HarvestCfg cfg, int capacity, String name)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.consumer = consumer;
+        
+        batchMaxDocs = cfg.batchMaxDocs;
+        batchMaxBytes = cfg.batchMaxBytes;
+        batchLingerMs = cfg.batchLingerMs;
+        spillThreshold = cfg.bulkSpillThreshold;
+        groups = new LinkedHashMap<>();
+
+        prepareQueue = new ArrayBlockingQueue<>(capacity);
+        // One batch is being loaded, one batch is waiting to be loaded.
+        loadQueue = new ArrayBlockingQueue<>(1);
+
+        prepareThread = new Thread(this::runPrepare, name + "-prepare");
+        loadThread = new Thread(this::runLoad, name + "-load");
+    }
+
+
+    /**
+     * Start worker threads
+     */
+    public void start()
+    {
+        prepareThread.start();
+        loadThread.start();
+    }
+
+
+    /**
+     * Add a message to the pipeline. Blocks if the pipeline is full.
+     * @param msg product message
+     * @param handle acknowledges or rejects the message after processing
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(ProductMessage msg, MessageHandle handle) throws InterruptedException
+    {
+        prepareQueue.put(new Item(msg, handle));
+    }
+
+
+    /**
+     * Process all submitted messages, flush pending batches and stop worker threads.
+     * If the timeout expires, worker threads are interrupted. Messages which
+     * were not completed are neither acknowledged nor rejected.
+     * @param timeoutMs max time to wait in milliseconds
+     * @return true if all messages were completed before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stop(long timeoutMs) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        
+        boolean status = prepareQueue.offer(STOP, timeoutMs, TimeUnit.MILLISECONDS);
+        if(status)
+        {
+            prepareThread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            loadThread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            status = !prepareThread.isAlive() && !loadThread.isAlive();
+        }
+        
+        if(!status)
+        {
+            prepareThread.interrupt();
+            loadThread.interrupt();
+        }
+        
+        return status;
+    }
+
+
+    private void runPrepare()
+    {
+        while(true)
+        {
+            Item item = null;
+            try
+            {
+                item = prepareQueue.take();
+                if(item == STOP)
+                {
+                    loadQueue.put(STOP);
+                    return;
+                }
+
+                item.batch = prepare(item.msg);
+                if(item.batch == null)
+                {
+                    item.handle.reject();
+                    continue;
+                }
+
+                loadQueue.put(item);
+            }
+            catch(InterruptedException ex)
+            {
+                // Shutdown timeout. Documents of an unfinished message are discarded.
+                if(item != null && item.batch != null) item.batch.close();
+                return;
+            }
+        }
+    }
+
+
+    private void runLoad()
+    {
+        while(true)
+        {
+            try
+            {
+                Item item = loadQueue.poll(getPollTimeout(), TimeUnit.MILLISECONDS);
+                if(item == STOP)
+                {
+                    flushAll();
+                    return;
+                }
+                
+                if(item != null) addToGroup(item);
+                flushExpired();
+            }
+            catch(InterruptedException ex)
+            {
+                return;
+            }
+        }
+    }
+
+
+    private void addToGroup(Item item)
+    {
+        // Nothing to load
+        if(item.batch.isEmpty())
+        {
+            item.handle.ack();
+            return;
+        }
+        
+        String key = item.msg.jobId == null ? "" : item.msg.jobId;
+        Group group = groups.get(key);
+        if(group == null)
+        {
+            group = new Group();
+            group.deadline = System.currentTimeMillis() + batchLingerMs;
+            groups.put(key, group);
+        }
+        
+        group.items.add(item);
+        group.numDocs += item.batch.size();
+        group.numBytes += item.batch.byteSize();
+        
+        // Batching is disabled or the group is full
+        if(batchMaxDocs <= 0 || group.numDocs >= batchMaxDocs || group.numBytes >= batchMaxBytes)
+        {
+            groups.remove(key);
+            flush(group);
+        }
+    }
+
+
+    private long getPollTimeout()
+    {
+        long timeout = 1000;
+        long now = System.currentTimeMillis();
+        
+        for(Group group: groups.values())
+        {
+            timeout = Math.min(timeout, group.deadline - now);
+        }
+        
+        return Math.max(timeout, 1);
+    }
+
+
+    private void flushExpired()
+    {
+        long now = System.currentTimeMillis();
+        
+        Iterator<Group> it = groups.values().iterator();
+        while(it.hasNext())
+        {
+            Group group = it.next();
+            if(group.deadline <= now)
+            {
+                it.remove();
+                flush(group);
+            }
+        }
+    }
+
+
+    private void flushAll()
+    {
+        for(Group group: groups.values())
+        {
+            flush(group);
+        }
+        
+        groups.clear();
+    }
+
+
+    private void flush(Group group)
+    {
+        ProductBatch batch;
+        if(group.items.size() == 1)
+        {
+            batch = group.items.get(0).batch;
+        }
+        else
+        {
+            batch = combine(group);
+            if(batch != null)
+            {
+                log.info("Combined " + group.items.size() + " messages into one batch of " + group.numDocs + " documents.");
+            }
+        }
+        
+        boolean status = (batch != null) && load(batch);
+        
+        if(batch != null) batch.close();
+        for(Item item: group.items)
+        {
+            item.batch.close();
+            
+            if(status)
+            {
+                item.handle.ack();
+            }
+            else
+            {
+                item.handle.reject();
+            }
+        }
+    }
+
+
+    private ProductBatch combine(Group group)
+    {
+        ProductBatch batch = new ProductBatch(new BulkBuffer(spillThreshold), new ArrayList<>(group.numDocs));
+        
+        try
+        {
+            for(Item item: group.items)
+            {
+                batch.docs.addAll(item.batch.docs);
+                for(int i = 0; i < item.batch.size(); i++)
+                {
+                    batch.files.add(item.batch.getFile(i));
+                }
+            }
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not combine messages. " + ExceptionUtils.getMessage(ex));
+            batch.close();
+            return null;
+        }
+        
+        return batch;
+    }
+    
+    
+    private ProductBatch prepare(ProductMessage msg)
+    {
+        try
+        {
+            return consumer.prepare(msg);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not process product message. " + ExceptionUtils.getMessage(ex));
+            return null;
+        }
+    }
+
+
+    private boolean load(ProductBatch batch)
+    {
+        try
+        {
+            return consumer.load(batch);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not load data into Elasticsearch. " + ExceptionUtils.getMessage(ex));
+            return false;
+        }
+    }
+}
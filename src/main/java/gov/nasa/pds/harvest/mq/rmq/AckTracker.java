@@ -0,0 +1,158 @@
+package gov.nasa.pds.harvest.mq.rmq;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import gov.nasa.pds.harvest.mq.MessageHandle;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Tracks unacknowledged deliveries of a RabbitMQ channel.
+ * <p>
+ * Messages could be completed out of order. Successfully processed messages
+ * are acknowledged with one "multiple" acknowledgement after all preceding
+ * deliveries are completed. Failed messages are rejected immediately
+ * and individually, so only they are redelivered. If retry router is set,
+ * failed messages are routed to a delayed retry queue and acknowledged in order.
+ * </p>
+ * All channel operations are serialized by this object.
+ */
+public class AckTracker
+{
+    private static enum State { PENDING, DONE, REJECTED }
+
+    private Logger log;
+    private Channel channel;
+    private RetryRouter retryRouter;
+
+    // Delivery tag -> state. Delivery tags are increasing within a channel.
+    private TreeMap<Long, State> deliveries;
+
+
+    /**
+     * Constructor
+     * @param channel RabbitMQ channel
+     * @param retryRouter routes failed messages to retry queues. Could be null.
+     */
+    public AckTracker(Channel channel, RetryRouter retryRouter)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.channel = channel;
+        this.retryRouter = retryRouter;
+        deliveries = new TreeMap<>();
+    }
+
+
+    /**
+     * Start tracking a delivery
+     * @param deliveryTag RabbitMQ delivery tag
+     * @param body message body. Used to publish a copy of a failed message to a retry queue.
+     * @param props message properties
+     * @return a handle to acknowledge or reject the delivery
+     */
+    public synchronized MessageHandle register(long deliveryTag, byte[] body, AMQP.BasicProperties props)
+    {
+        deliveries.put(deliveryTag, State.PENDING);
+
+        return new MessageHandle()
+        {
+            @Override
+            public void ack()
+            {
+                AckTracker.this.ack(deliveryTag);
+            }
+
+            @Override
+            public void reject()
+            {
+                if(retryRouter != null && retryRouter.route(body, props))
+                {
+                    AckTracker.this.ack(deliveryTag);
+                }
+                else
+                {
+                    AckTracker.this.reject(deliveryTag, true);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Mark a delivery as successfully processed
+     * @param deliveryTag RabbitMQ delivery tag
+     */
+    public synchronized void ack(long deliveryTag)
+    {
+        deliveries.put(deliveryTag, State.DONE);
+        flush();
+    }
+
+
+    /**
+     * Reject a delivery
+     * @param deliveryTag RabbitMQ delivery tag
+     * @param requeue if true, the message will be redelivered
+     */
+    public synchronized void reject(long deliveryTag, boolean requeue)
+    {
+        try
+        {
+            channel.basicReject(deliveryTag, requeue);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not reject message " + deliveryTag + ". " + ExceptionUtils.getMessage(ex));
+        }
+
+        deliveries.put(deliveryTag, State.REJECTED);
+        flush();
+    }
+
+
+    /**
+     * Get number of unacknowledged deliveries
+     * @return number of deliveries
+     */
+    public synchronized int size()
+    {
+        return deliveries.size();
+    }
+
+
+    /**
+     * Acknowledge all completed deliveries up to the first pending delivery.
+     */
+    private void flush()
+    {
+        long ackTag = -1;
+
+        while(!deliveries.isEmpty())
+        {
+            Map.Entry<Long, State> entry = deliveries.firstEntry();
+            if(entry.getValue() == State.PENDING) break;
+
+            // Rejected deliveries are already settled. Only acknowledge successful ones.
+            if(entry.getValue() == State.DONE) ackTag = entry.getKey();
+            deliveries.pollFirstEntry();
+        }
+
+        if(ackTag < 0) return;
+
+        try
+        {
+            channel.basicAck(ackTag, true);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not acknowledge messages up to " + ackTag + ". " + ExceptionUtils.getMessage(ex));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package gov.nasa.pds.harvest.mq.rmq;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.registry.common.mq.msg.MQConstants;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Moves overwrite (re-harvest) product messages from the main product queue
+ * to the bulk lane queue ("harvest.products.bulk"). The bulk lane has its own
+ * consumers, so large re-harvests don't delay registration of new products.
+ */
+public class BulkLaneRouter
+{
+    /**
+     * Bulk lane queue name
+     */
+    public static final String MQ_PRODUCTS_BULK = MQConstants.MQ_PRODUCTS + ".bulk";
+
+    private static final int CONFIRM_TIMEOUT_MS = 10_000;
+
+    private Logger log;
+    private Connection connection;
+    private Channel channel;
+
+    // Statistics
+    private volatile long numForwarded;
+
+
+    /**
+     * Constructor. Declares the bulk lane queue.
+     * @param connection RabbitMQ connection
+     * @throws Exception an exception
+     */
+    public BulkLaneRouter(Connection connection) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.connection = connection;
+
+        openChannel();
+        channel.queueDeclare(MQ_PRODUCTS_BULK, true, false, false, null);
+
+        StatsRegistry.register("bulkLane", this::getStats);
+    }
+
+
+    /**
+     * Publish a copy of the message to the bulk lane queue.
+     * The caller should acknowledge the original message if this method returns true.
+     * @param body message body
+     * @param props message properties
+     * @return true if the message was published.
+     * false if there was an error and the message has to be processed by the main lane.
+     */
+    public synchronized boolean forward(byte[] body, AMQP.BasicProperties props)
+    {
+        try
+        {
+            if(!channel.isOpen()) openChannel();
+
+            channel.basicPublish("", MQ_PRODUCTS_BULK, props, body);
+            channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MS);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not forward message to " + MQ_PRODUCTS_BULK + ". " + ExceptionUtils.getMessage(ex));
+            return false;
+        }
+
+        numForwarded++;
+        return true;
+    }
+
+
+    private void openChannel() throws Exception
+    {
+        channel = connection.createChannel();
+        channel.confirmSelect();
+    }
+
+
+    private Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queue", MQ_PRODUCTS_BULK);
+        stats.put("forwarded", numForwarded);
+
+        return stats;
+    }
+}
@@ -5,13 +5,12 @@ import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.gson.Gson;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 import gov.nasa.pds.harvest.mq.CollectionInventoryConsumer;
+import gov.nasa.pds.harvest.mq.MessageDecoder;
 import gov.nasa.pds.registry.common.mq.msg.CollectionInventoryMessage;
 import gov.nasa.pds.registry.common.mq.msg.MQConstants;
 
@@ -20,24 +19,29 @@ import gov.nasa.pds.registry.common.mq.msg.MQConstants;
  * A consumer of file messages from a RabbitMQ queue
  * @author karpenko
  */
-public class CollectionInventoryConsumerRabbitMQ extends DefaultConsumer
+public class CollectionInventoryConsumerRabbitMQ extends DrainableConsumerRabbitMQ
 {
     private Logger log;
-    private Gson gson;
+    private MessageDecoder decoder;
     
     private CollectionInventoryConsumer collectionInventoryConsumer;
+    private RetryRouter retryRouter;
     
     /**
      * Constructor
      * @param channel RabbitMQ connection channel
+     * @param consumer generic collection inventory consumer
+     * @param retryRouter routes failed messages to retry queues. 
+     * If null, failed messages are re-queued immediately.
      */
-    public CollectionInventoryConsumerRabbitMQ(Channel channel, CollectionInventoryConsumer consumer)
+    public CollectionInventoryConsumerRabbitMQ(Channel channel, CollectionInventoryConsumer consumer, RetryRouter retryRouter)
     {
         super(channel);
         this.collectionInventoryConsumer = consumer;
+        this.retryRouter = retryRouter;
         
         log = LogManager.getLogger(this.getClass());        
-        gson = new Gson();
+        decoder = new MessageDecoder();
     }
 
     
@@ -47,12 +51,12 @@ public class CollectionInventoryConsumerRabbitMQ extends DefaultConsumer
      */
     public void start() throws Exception
     {
-        getChannel().basicConsume(MQConstants.MQ_COLLECTION_INVENTORY, false, this);
+        consume(MQConstants.MQ_COLLECTION_INVENTORY);
     }
 
     
     @Override
-    public void handleDelivery(String consumerTag, Envelope envelope, 
+    protected void processDelivery(Envelope envelope, 
             AMQP.BasicProperties properties, byte[] body) throws IOException
     {
         long deliveryTag = envelope.getDeliveryTag();
@@ -60,8 +64,7 @@ public class CollectionInventoryConsumerRabbitMQ extends DefaultConsumer
         
         try
         {
-            String jsonStr = new String(body);
-            msg = gson.fromJson(jsonStr, CollectionInventoryMessage.class);
+            msg = decoder.decode(body, properties.getContentEncoding(), CollectionInventoryMessage.class);
         }
         catch(Exception ex)
         {
@@ -77,6 +80,11 @@ public class CollectionInventoryConsumerRabbitMQ extends DefaultConsumer
             // ACK message (delete from the queue)
             getChannel().basicAck(deliveryTag, false);
         }
+        else if(retryRouter != null)
+        {
+            // Send to a delayed retry queue or dead-letter queue
+            retryRouter.reject(getChannel(), deliveryTag, body, properties);
+        }
         else
         {
             // Reject and requeue
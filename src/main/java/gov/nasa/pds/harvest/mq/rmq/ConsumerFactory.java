@@ -1,6 +1,7 @@
 package gov.nasa.pds.harvest.mq.rmq;
 
 import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.mq.AdaptiveLimiter;
 import gov.nasa.pds.harvest.mq.CollectionInventoryConsumer;
 import gov.nasa.pds.harvest.mq.ManagerCommandConsumer;
 import gov.nasa.pds.harvest.mq.ProductConsumer;
@@ -14,6 +15,7 @@ public class ConsumerFactory
 {
     private HarvestCfg harvestCfg;
     private RegistryCfg registryCfg;
+    private AdaptiveLimiter limiter;
     
     /**
      * Constructor
@@ -21,9 +23,32 @@ public class ConsumerFactory
      * @param registryCfg registry (Elasticsearch) configuration
      */
     public ConsumerFactory(HarvestCfg harvestCfg, RegistryCfg registryCfg)
+    {
+        this(harvestCfg, registryCfg, null);
+    }
+
+    
+    /**
+     * Constructor
+     * @param harvestCfg harvest configuration
+     * @param registryCfg registry (Elasticsearch) configuration
+     * @param limiter adaptive limit shared by all product consumers. Could be null.
+     */
+    public ConsumerFactory(HarvestCfg harvestCfg, RegistryCfg registryCfg, AdaptiveLimiter limiter)
     {
         this.harvestCfg = harvestCfg;
         this.registryCfg = registryCfg;
+        this.limiter = limiter;
+    }
+
+    
+    /**
+     * Get adaptive limit shared by all product consumers
+     * @return adaptive limiter or null if adaptive mode is disabled
+     */
+    public AdaptiveLimiter getLimiter()
+    {
+        return limiter;
     }
 
     
@@ -34,7 +59,7 @@ public class ConsumerFactory
      */
     public ProductConsumer createProductConsumer() throws Exception
     {
-        ProductConsumer consumer = new ProductConsumer(harvestCfg, registryCfg);
+        ProductConsumer consumer = new ProductConsumer(harvestCfg, limiter);
         return consumer;
     }
 
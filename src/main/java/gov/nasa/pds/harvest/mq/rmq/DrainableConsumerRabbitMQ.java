@@ -0,0 +1,224 @@
+package gov.nasa.pds.harvest.mq.rmq;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Base class of RabbitMQ consumers which can be drained on shutdown.
+ * <p>
+ * After cancel() is called, the consumer doesn't receive new messages.
+ * Messages which were already prefetched but not yet processed are
+ * re-queued without processing. Messages being processed are allowed to finish.
+ * </p>
+ * <p>
+ * A consumer can also be paused (e.g., while Elasticsearch is unavailable) and resumed.
+ * </p>
+ */
+public abstract class DrainableConsumerRabbitMQ extends DefaultConsumer
+{
+    private Logger log;
+
+    private volatile boolean draining;
+    private boolean paused;
+    private String queue;
+    // Number of deliveries being processed
+    private int inFlight;
+    private Object lock = new Object();
+
+
+    /**
+     * Constructor
+     * @param channel RabbitMQ connection channel
+     */
+    public DrainableConsumerRabbitMQ(Channel channel)
+    {
+        super(channel);
+        log = LogManager.getLogger(this.getClass());
+    }
+
+
+    /**
+     * Start consuming messages from a queue
+     * @param queue queue name
+     * @throws IOException an exception
+     */
+    protected synchronized void consume(String queue) throws IOException
+    {
+        this.queue = queue;
+        getChannel().basicConsume(queue, false, this);
+    }
+
+
+    /**
+     * Change channel prefetch count of a running consumer.
+     * <p>
+     * RabbitMQ applies per-consumer prefetch only to consumers started after
+     * "basic.qos", so the consumer is re-registered (basic.cancel + basic.consume).
+     * Unacknowledged deliveries stay valid (delivery tags belong to the channel).
+     * </p>
+     * @param prefetch new prefetch count
+     */
+    public synchronized void setPrefetch(int prefetch)
+    {
+        try
+        {
+            getChannel().basicQos(prefetch);
+            
+            // Paused or draining consumers pick up the new value on resume()
+            if(draining || paused || queue == null || getConsumerTag() == null) return;
+            
+            getChannel().basicCancel(getConsumerTag());
+            getChannel().basicConsume(queue, false, this);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not update prefetch count. " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Temporarily stop receiving new messages. Messages being processed are allowed to finish.
+     */
+    public synchronized void pause()
+    {
+        if(draining || paused || getConsumerTag() == null) return;
+
+        try
+        {
+            getChannel().basicCancel(getConsumerTag());
+            paused = true;
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not pause consumer. " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Resume receiving messages after pause()
+     */
+    public synchronized void resume()
+    {
+        if(draining || !paused) return;
+
+        try
+        {
+            getChannel().basicConsume(queue, false, this);
+            paused = false;
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not resume consumer. " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Stop receiving new messages
+     */
+    public synchronized void cancel()
+    {
+        draining = true;
+        if(paused) return;
+
+        try
+        {
+            if(getConsumerTag() != null) getChannel().basicCancel(getConsumerTag());
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not cancel consumer. " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Wait until messages being processed are completed
+     * @param timeoutMs max time to wait in milliseconds
+     * @return true if all messages were completed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDrained(long timeoutMs) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        synchronized(lock)
+        {
+            while(inFlight > 0)
+            {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0) return false;
+                lock.wait(wait);
+            }
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public final void handleDelivery(String consumerTag, Envelope envelope,
+            AMQP.BasicProperties properties, byte[] body) throws IOException
+    {
+        if(draining)
+        {
+            // Shutting down. Another instance will process this message.
+            requeue(envelope.getDeliveryTag(), body, properties);
+            return;
+        }
+
+        synchronized(lock)
+        {
+            inFlight++;
+        }
+
+        try
+        {
+            processDelivery(envelope, properties, body);
+        }
+        finally
+        {
+            synchronized(lock)
+            {
+                inFlight--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Process a message. Called for each delivery unless the consumer is draining.
+     * @param envelope message envelope
+     * @param properties message properties
+     * @param body message body
+     * @throws IOException an exception
+     */
+    protected abstract void processDelivery(Envelope envelope,
+            AMQP.BasicProperties properties, byte[] body) throws IOException;
+
+
+    /**
+     * Return a message to the queue without processing it
+     * @param deliveryTag delivery tag
+     * @param body message body
+     * @param properties message properties
+     * @throws IOException an exception
+     */
+    protected void requeue(long deliveryTag, byte[] body, AMQP.BasicProperties properties) throws IOException
+    {
+        getChannel().basicReject(deliveryTag, true);
+    }
+}
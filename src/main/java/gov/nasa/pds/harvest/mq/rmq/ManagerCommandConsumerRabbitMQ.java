@@ -5,13 +5,12 @@ import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.gson.Gson;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 import gov.nasa.pds.harvest.mq.ManagerCommandConsumer;
+import gov.nasa.pds.harvest.mq.MessageDecoder;
 import gov.nasa.pds.registry.common.mq.msg.MQConstants;
 import gov.nasa.pds.registry.common.mq.msg.ManagerMessage;
 
@@ -20,10 +19,10 @@ import gov.nasa.pds.registry.common.mq.msg.ManagerMessage;
  * A RabbitMQ consumer of manager messages
  * @author karpenko
  */
-public class ManagerCommandConsumerRabbitMQ extends DefaultConsumer
+public class ManagerCommandConsumerRabbitMQ extends DrainableConsumerRabbitMQ
 {
     private Logger log;
-    private Gson gson;
+    private MessageDecoder decoder;
     
     private ManagerCommandConsumer mgrConsumer;
 
@@ -38,7 +37,7 @@ public class ManagerCommandConsumerRabbitMQ extends DefaultConsumer
         this.mgrConsumer = mgrConsumer;
         
         log = LogManager.getLogger(this.getClass());        
-        gson = new Gson();
+        decoder = new MessageDecoder();
     }
 
     
@@ -53,7 +52,7 @@ public class ManagerCommandConsumerRabbitMQ extends DefaultConsumer
 
     
     @Override
-    public void handleDelivery(String consumerTag, Envelope envelope, 
+    protected void processDelivery(Envelope envelope, 
             AMQP.BasicProperties properties, byte[] body) throws IOException
     {
         long deliveryTag = envelope.getDeliveryTag();
@@ -61,8 +60,7 @@ public class ManagerCommandConsumerRabbitMQ extends DefaultConsumer
         
         try
         {
-            String jsonStr = new String(body);
-            msg = gson.fromJson(jsonStr, ManagerMessage.class);
+            msg = decoder.decode(body, properties.getContentEncoding(), ManagerMessage.class);
         }
         catch(Exception ex)
         {
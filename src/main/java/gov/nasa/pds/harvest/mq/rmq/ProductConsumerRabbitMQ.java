@@ -5,13 +5,15 @@ import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.gson.Gson;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.mq.MessageDecoder;
+import gov.nasa.pds.harvest.mq.MessageHandle;
 import gov.nasa.pds.harvest.mq.ProductConsumer;
+import gov.nasa.pds.harvest.mq.ProductPipeline;
 import gov.nasa.pds.registry.common.mq.msg.MQConstants;
 import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
 
@@ -20,39 +22,94 @@ import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
  * A consumer of file messages from a RabbitMQ queue
  * @author karpenko
  */
-public class ProductConsumerRabbitMQ extends DefaultConsumer
+public class ProductConsumerRabbitMQ extends DrainableConsumerRabbitMQ
 {
     private Logger log;
-    private Gson gson;
+    private MessageDecoder decoder;
     
     private ProductConsumer prodConsumer;
     
+    private RetryRouter retryRouter;
+    // Main lane only. Moves overwrite (re-harvest) messages to the bulk lane.
+    private BulkLaneRouter bulkLaneRouter;
+    
+    // Pipelined mode
+    private ProductPipeline pipeline;
+    private AckTracker ackTracker;
+    
     /**
      * Constructor
      * @param channel RabbitMQ connection channel
+     * @param prodConsumer generic product consumer
+     * @param retryRouter routes failed messages to retry queues. 
+     * If null, failed messages are re-queued immediately.
      */
-    public ProductConsumerRabbitMQ(Channel channel, ProductConsumer prodConsumer)
+    public ProductConsumerRabbitMQ(Channel channel, ProductConsumer prodConsumer, RetryRouter retryRouter)
     {
         super(channel);
         this.prodConsumer = prodConsumer;
+        this.retryRouter = retryRouter;
         
         log = LogManager.getLogger(this.getClass());        
-        gson = new Gson();
+        decoder = new MessageDecoder();
     }
 
     
     /**
-     * Start consuming messages
+     * Constructor. Creates pipelined consumer. Parsing of the next message
+     * overlaps with loading of the previous message into Elasticsearch.
+     * @param channel RabbitMQ connection channel
+     * @param prodConsumer generic product consumer
+     * @param retryRouter routes failed messages to retry queues. Could be null.
+     * @param harvestCfg Harvest configuration
+     * @param capacity max number of messages in the pipeline. 
+     * Should not be less than channel prefetch count (including adaptive prefetch).
+     * @param name consumer name. Used to name pipeline threads.
+     */
+    public ProductConsumerRabbitMQ(Channel channel, ProductConsumer prodConsumer, RetryRouter retryRouter,
+            HarvestCfg harvestCfg, int capacity, String name)
+    {
+        this(channel, prodConsumer, retryRouter);
+        
+        ackTracker = new AckTracker(channel, retryRouter);
+        pipeline = new ProductPipeline(prodConsumer, harvestCfg, capacity, name);
+    }
+
+    
+    /**
+     * Move overwrite (re-harvest) messages to the bulk lane queue
+     * @param router bulk lane router
+     */
+    public void setBulkLaneRouter(BulkLaneRouter router)
+    {
+        this.bulkLaneRouter = router;
+    }
+
+    
+    /**
+     * Start consuming messages from the main product queue
      * @throws Exception
      */
     public void start() throws Exception
     {
-        getChannel().basicConsume(MQConstants.MQ_PRODUCTS, false, this);
+        start(MQConstants.MQ_PRODUCTS);
+    }
+
+    
+    /**
+     * Start consuming messages
+     * @param queue product queue name
+     * @throws Exception
+     */
+    public void start(String queue) throws Exception
+    {
+        if(pipeline != null) pipeline.start();
+        consume(queue);
     }
 
     
     @Override
-    public void handleDelivery(String consumerTag, Envelope envelope, 
+    protected void processDelivery(Envelope envelope, 
             AMQP.BasicProperties properties, byte[] body) throws IOException
     {
         long deliveryTag = envelope.getDeliveryTag();
@@ -60,29 +117,124 @@ public class ProductConsumerRabbitMQ extends DefaultConsumer
         
         try
         {
-            String jsonStr = new String(body);
-            msg = gson.fromJson(jsonStr, ProductMessage.class);            
+            msg = decoder.decode(body, properties.getContentEncoding(), ProductMessage.class);
         }
         catch(Exception ex)
         {
             log.error("Invalid message", ex);
 
             // ACK message (delete from the queue)
-            getChannel().basicAck(deliveryTag, false);
+            ack(deliveryTag, body, properties);
             return;
         }
 
+        // Re-harvests go to the bulk lane, so that they don't delay registration of new products
+        if(bulkLaneRouter != null && msg != null && msg.overwrite && bulkLaneRouter.forward(body, properties))
+        {
+            ack(deliveryTag, body, properties);
+            return;
+        }
+
+        if(pipeline != null)
+        {
+            submit(msg, deliveryTag, body, properties);
+            return;
+        }
+        
         if(prodConsumer.processMessage(msg))
         {
             // ACK message (delete from the queue)
             getChannel().basicAck(deliveryTag, false);
         }
         else
+        {
+            reject(deliveryTag, body, properties);
+        }
+    }
+
+
+    private void ack(long deliveryTag, byte[] body, AMQP.BasicProperties properties) throws IOException
+    {
+        if(pipeline != null)
+        {
+            ackTracker.register(deliveryTag, body, properties).ack();
+        }
+        else
+        {
+            getChannel().basicAck(deliveryTag, false);
+        }
+    }
+
+    
+    @Override
+    protected void requeue(long deliveryTag, byte[] body, AMQP.BasicProperties properties) throws IOException
+    {
+        if(pipeline != null)
+        {
+            // Keep multiple acknowledgements consistent
+            ackTracker.register(deliveryTag, body, properties);
+            ackTracker.reject(deliveryTag, true);
+        }
+        else
+        {
+            super.requeue(deliveryTag, body, properties);
+        }
+    }
+
+
+    @Override
+    public boolean awaitDrained(long timeoutMs) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean status = super.awaitDrained(timeoutMs);
+        
+        // Finish messages in the pipeline and flush combined batches.
+        // If the time is up, stop pipeline threads anyway.
+        if(pipeline != null)
+        {
+            status = pipeline.stop(Math.max(deadline - System.currentTimeMillis(), 1)) && status;
+        }
+        
+        return status;
+    }
+
+    
+    /**
+     * Release resources of the generic consumer. Call after the consumer is drained.
+     */
+    public void close()
+    {
+        prodConsumer.close();
+    }
+
+    
+    private void reject(long deliveryTag, byte[] body, AMQP.BasicProperties properties) throws IOException
+    {
+        if(retryRouter == null)
         {
             // Reject and requeue
             getChannel().basicReject(deliveryTag, true);
+            return;
         }
+        
+        // Send to a delayed retry queue or dead-letter queue
+        retryRouter.reject(getChannel(), deliveryTag, body, properties);
     }
+
     
-    
+    private void submit(ProductMessage msg, long deliveryTag, byte[] body, AMQP.BasicProperties properties)
+    {
+        MessageHandle handle = ackTracker.register(deliveryTag, body, properties);
+        
+        try
+        {
+            pipeline.submit(msg, handle);
+        }
+        catch(InterruptedException ex)
+        {
+            // Shutting down. The message will be redelivered.
+            ackTracker.reject(deliveryTag, true);
+            Thread.currentThread().interrupt();
+        }
+    }
 }
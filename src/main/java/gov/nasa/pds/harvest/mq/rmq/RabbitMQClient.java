@@ -2,6 +2,8 @@ package gov.nasa.pds.harvest.mq.rmq;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,12 +13,16 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
 import gov.nasa.pds.harvest.cfg.IPAddress;
 import gov.nasa.pds.harvest.cfg.RabbitMQCfg;
+import gov.nasa.pds.harvest.dao.RegistryManager;
+import gov.nasa.pds.harvest.mq.AdaptiveLimiter;
 import gov.nasa.pds.harvest.mq.CollectionInventoryConsumer;
 import gov.nasa.pds.harvest.mq.MQClient;
 import gov.nasa.pds.harvest.mq.ManagerCommandConsumer;
 import gov.nasa.pds.harvest.mq.ProductConsumer;
+import gov.nasa.pds.registry.common.mq.msg.MQConstants;
 import gov.nasa.pds.registry.common.util.CloseUtils;
 import gov.nasa.pds.registry.common.util.ExceptionUtils;
 
@@ -29,18 +35,36 @@ public class RabbitMQClient implements MQClient
 {
     private Logger log;
     private RabbitMQCfg cfg;
+    private HarvestCfg harvestCfg;
     private ConsumerFactory consumerFactory;
     
     private ConnectionFactory rmqConnectionFactory;
     private Connection rmqConnection;
     private String rmqConnectionInfo;
+    private ExecutorService executor;
+    
+    private List<ProductConsumerRabbitMQ> productConsumers;
+    // All consumers (products, collection inventories, manager commands)
+    private List<DrainableConsumerRabbitMQ> consumers;
+    // Consumers calling Elasticsearch. Paused while Elasticsearch is unavailable.
+    private List<DrainableConsumerRabbitMQ> esConsumers;
+    
+    // Route failed messages to delayed retry queues
+    private RetryRouter productRetryRouter;
+    private RetryRouter bulkRetryRouter;
+    
+    // Moves overwrite (re-harvest) messages to the bulk lane
+    private BulkLaneRouter bulkLaneRouter;
+    private RetryRouter inventoryRetryRouter;
     
 
     /**
      * Constructor
      * @param cfg RabbitMQ configuration
+     * @param harvestCfg Harvest configuration
+     * @param consumerFactory creates generic (message server independent) consumers
      */
-    public RabbitMQClient(RabbitMQCfg cfg, ConsumerFactory consumerFactory)
+    public RabbitMQClient(RabbitMQCfg cfg, HarvestCfg harvestCfg, ConsumerFactory consumerFactory)
     {
         // Get logger
         log = LogManager.getLogger(this.getClass());
@@ -54,11 +78,20 @@ public class RabbitMQClient implements MQClient
         }
         
         this.cfg = cfg;
+        this.harvestCfg = harvestCfg;
+        productConsumers = new ArrayList<>();
+        consumers = new ArrayList<>();
 
         // Create connection factory
         rmqConnectionFactory = new ConnectionFactory();
         rmqConnectionFactory.setAutomaticRecoveryEnabled(true);
         
+        // Deliveries to different channels are dispatched in parallel by the shared executor.
+        // One thread per product consumer (both lanes) plus collection inventory and manager command consumers.
+        int numThreads = harvestCfg.productConsumers + harvestCfg.bulkConsumers + 2;
+        executor = Executors.newFixedThreadPool(numThreads);
+        rmqConnectionFactory.setSharedExecutor(executor);
+        
         if(cfg.userName != null)
         {
             rmqConnectionFactory.setUsername(cfg.userName);
@@ -111,20 +144,74 @@ public class RabbitMQClient implements MQClient
     {
         // Connect to RabbitMQ (wait until RabbitMQ is up)
         connect();
+        
+        // Declare bulk lane queue
+        if(harvestCfg.bulkConsumers > 0)
+        {
+            bulkLaneRouter = new BulkLaneRouter(rmqConnection);
+        }
+        
+        // Declare retry and dead-letter queues
+        if(cfg.retryMax > 0)
+        {
+            productRetryRouter = new RetryRouter(rmqConnection, MQConstants.MQ_PRODUCTS, cfg);
+            inventoryRetryRouter = new RetryRouter(rmqConnection, MQConstants.MQ_COLLECTION_INVENTORY, cfg);
+            if(bulkLaneRouter != null)
+            {
+                bulkRetryRouter = new RetryRouter(rmqConnection, BulkLaneRouter.MQ_PRODUCTS_BULK, cfg);
+            }
+            log.info("Failed messages will be retried up to " + cfg.retryMax + " times");
+        }
 
-        // Start product consumer
-        ProductConsumerRabbitMQ productConsumer = createProductConsumer();
-        productConsumer.start();
-        log.info("Started product consumer");
+        // Start product consumers
+        for(int i = 0; i < harvestCfg.productConsumers; i++)
+        {
+            ProductConsumerRabbitMQ productConsumer = createProductConsumer("product-consumer-" + i, productRetryRouter);
+            productConsumer.setBulkLaneRouter(bulkLaneRouter);
+            productConsumer.start(MQConstants.MQ_PRODUCTS);
+            productConsumers.add(productConsumer);
+            consumers.add(productConsumer);
+        }
+        log.info("Started " + productConsumers.size() + " product consumer(s). Prefetch = " + cfg.prefetch 
+                + ", pipeline = " + harvestCfg.pipeline);
+        
+        // Start bulk lane (overwrite / re-harvest) product consumers
+        for(int i = 0; i < harvestCfg.bulkConsumers; i++)
+        {
+            ProductConsumerRabbitMQ productConsumer = createProductConsumer("bulk-consumer-" + i, bulkRetryRouter);
+            productConsumer.start(BulkLaneRouter.MQ_PRODUCTS_BULK);
+            productConsumers.add(productConsumer);
+            consumers.add(productConsumer);
+        }
+        if(bulkLaneRouter != null)
+        {
+            log.info("Started " + harvestCfg.bulkConsumers + " bulk lane consumer(s). Overwrite messages are moved to " 
+                    + BulkLaneRouter.MQ_PRODUCTS_BULK);
+        }
+        
+        // Adjust prefetch when adaptive limit changes
+        AdaptiveLimiter limiter = consumerFactory.getLimiter();
+        if(limiter != null)
+        {
+            limiter.addListener(this::setProductPrefetch);
+            setProductPrefetch(limiter.getLimit());
+        }
         
         // Start Collection inventory consumer
         CollectionInventoryConsumerRabbitMQ inventoryConsumer = createCollectionInventoryConsumer();
         inventoryConsumer.start();
+        consumers.add(inventoryConsumer);
         log.info("Started collection inventory consumer");
 
+        // Pause product and collection inventory consumers while Elasticsearch is unavailable
+        esConsumers = new ArrayList<>(productConsumers);
+        esConsumers.add(inventoryConsumer);
+        RegistryManager.getInstance().getCallPolicy().addListener(this::onElasticsearchStateChange);
+
         // Start Manager command consumer
         ManagerCommandConsumerRabbitMQ managerConsumer = createManagerCommandConsumer();
         managerConsumer.start();
+        consumers.add(managerConsumer);
         log.info("Started manager command consumer");
     }
 
@@ -165,20 +252,109 @@ public class RabbitMQClient implements MQClient
     }
 
     
+    /**
+     * Drain consumers and close RabbitMQ connection.
+     * Stop receiving new messages, wait until messages being processed are completed
+     * and acknowledged (up to drain timeout), then close the connection.
+     * Messages which were not completed are redelivered by RabbitMQ.
+     */
+    @Override
     public void close()
     {
-        CloseUtils.close(rmqConnection);    
+        long deadline = System.currentTimeMillis() + harvestCfg.drainTimeoutSec * 1000L;
+        log.info("Draining RabbitMQ consumers. Timeout = " + harvestCfg.drainTimeoutSec + " sec.");
+        
+        // Stop all deliveries first, then wait
+        for(DrainableConsumerRabbitMQ consumer: consumers)
+        {
+            consumer.cancel();
+        }
+        
+        boolean drained = true;
+        for(DrainableConsumerRabbitMQ consumer: consumers)
+        {
+            try
+            {
+                long timeout = Math.max(deadline - System.currentTimeMillis(), 1);
+                drained = consumer.awaitDrained(timeout) && drained;
+            }
+            catch(InterruptedException ex)
+            {
+                drained = false;
+                break;
+            }
+        }
+        
+        if(drained)
+        {
+            log.info("All in-flight messages are completed.");
+        }
+        else
+        {
+            log.warn("Drain timeout expired. Unfinished messages will be redelivered.");
+        }
+        
+        for(ProductConsumerRabbitMQ consumer: productConsumers)
+        {
+            consumer.close();
+        }
+        
+        CloseUtils.close(rmqConnection);
+        executor.shutdown();
     }
     
     
-    private ProductConsumerRabbitMQ createProductConsumer() throws Exception
+    private ProductConsumerRabbitMQ createProductConsumer(String name, RetryRouter retryRouter) throws Exception
     {
+        // Each consumer has its own channel. ProductConsumer is not thread-safe.
         Channel channel = rmqConnection.createChannel();
-        channel.basicQos(1);
+        channel.basicQos(cfg.prefetch);
         
         ProductConsumer genericConsumer = consumerFactory.createProductConsumer();
-        ProductConsumerRabbitMQ consumer = new ProductConsumerRabbitMQ(channel, genericConsumer);
-        return consumer;
+        
+        if(harvestCfg.pipeline)
+        {
+            // Prefetch could grow up to the adaptive limit. Prefetch bounds the number 
+            // of messages in the pipeline, so the pipeline must not be smaller.
+            int capacity = consumerFactory.getLimiter() == null ? 
+                    cfg.prefetch : Math.max(cfg.prefetch, harvestCfg.adaptiveMaxLimit);
+            return new ProductConsumerRabbitMQ(channel, genericConsumer, retryRouter, 
+                    harvestCfg, capacity, name);
+        }
+        
+        return new ProductConsumerRabbitMQ(channel, genericConsumer, retryRouter);
+    }
+
+    
+    /**
+     * Pause or resume consumers calling Elasticsearch
+     * @param open true if Elasticsearch is unavailable (circuit breaker is open)
+     */
+    private void onElasticsearchStateChange(boolean open)
+    {
+        for(DrainableConsumerRabbitMQ consumer: esConsumers)
+        {
+            if(open) consumer.pause();
+            else consumer.resume();
+        }
+        
+        log.info((open ? "Paused " : "Resumed ") + esConsumers.size() + " product and collection inventory consumer(s)");
+    }
+
+    
+    /**
+     * Update prefetch count of all product consumer channels
+     * @param limit adaptive limit
+     */
+    private void setProductPrefetch(int limit)
+    {
+        // Pipelined consumers need at least 2 messages
+        int prefetch = harvestCfg.pipeline ? Math.max(limit, 2) : limit;
+        
+        for(ProductConsumerRabbitMQ consumer: productConsumers)
+        {
+            consumer.setPrefetch(prefetch);
+        }
     }
 
     
@@ -188,7 +364,7 @@ public class RabbitMQClient implements MQClient
         channel.basicQos(1);
         
         CollectionInventoryConsumer genericConsumer = consumerFactory.createCollectionInventoryConsumer();
-        CollectionInventoryConsumerRabbitMQ consumer = new CollectionInventoryConsumerRabbitMQ(channel, genericConsumer);
+        CollectionInventoryConsumerRabbitMQ consumer = new CollectionInventoryConsumerRabbitMQ(channel, genericConsumer, inventoryRetryRouter);
         return consumer;
     }
 
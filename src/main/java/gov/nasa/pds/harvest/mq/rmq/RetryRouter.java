@@ -0,0 +1,260 @@
+package gov.nasa.pds.harvest.mq.rmq;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import gov.nasa.pds.harvest.cfg.RabbitMQCfg;
+import gov.nasa.pds.harvest.dao.RegistryManager;
+import gov.nasa.pds.harvest.stats.StatsRegistry;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Routes failed messages to delayed retry queues or to a dead-letter queue
+ * instead of immediately re-queueing them.
+ * <p>
+ * Number of attempts is stored in the "x-retry-count" message header.
+ * Retry queues have per-queue message TTL. Expired messages are dead-lettered
+ * back to the original queue. The delay grows exponentially with each attempt.
+ * After max number of retries, the message is moved to the dead-letter queue
+ * ("&lt;queue&gt;.dlq").
+ * </p>
+ * <p>
+ * Messages failed while Elasticsearch is unavailable (circuit breaker is open) are 
+ * delayed in a retry queue without counting the attempt, so they are neither 
+ * re-delivered right away nor dead-lettered because of an outage.
+ * </p>
+ */
+public class RetryRouter
+{
+    public static final String HEADER_RETRY_COUNT = "x-retry-count";
+
+    private static final int CONFIRM_TIMEOUT_MS = 10_000;
+
+    private Logger log;
+    private Connection connection;
+    private Channel channel;
+
+    private String queue;
+    private String deadLetterQueue;
+
+    private int maxRetries;
+    private int delayMs;
+    private int maxDelayMs;
+
+    // Statistics. Updated under the lock, read without the lock by the status page.
+    private volatile long numRetried;
+    private volatile long numDeferred;
+    private volatile long numDeadLettered;
+
+
+    /**
+     * Constructor. Declares retry and dead-letter queues.
+     * @param connection RabbitMQ connection
+     * @param queue original queue name
+     * @param cfg RabbitMQ configuration (retry parameters)
+     * @throws Exception an exception
+     */
+    public RetryRouter(Connection connection, String queue, RabbitMQCfg cfg) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.connection = connection;
+        this.queue = queue;
+        this.deadLetterQueue = queue + ".dlq";
+
+        this.maxRetries = cfg.retryMax;
+        this.delayMs = cfg.retryDelayMs;
+        this.maxDelayMs = cfg.retryMaxDelayMs;
+
+        openChannel();
+        declareQueues();
+
+        StatsRegistry.register("retry:" + queue, this::getStats);
+    }
+
+
+    /**
+     * Publish a copy of a failed message to a retry queue or to the dead-letter queue.
+     * The caller should acknowledge the original message if this method returns true.
+     * @param body message body
+     * @param props message properties
+     * @return true if the message was published.
+     * false if there was an error and the original message has to be re-queued.
+     */
+    public synchronized boolean route(byte[] body, AMQP.BasicProperties props)
+    {
+        int retryCount = getRetryCount(props);
+        
+        if(RegistryManager.getInstance().getCallPolicy().isOpen())
+        {
+            return defer(body, props, retryCount);
+        }
+
+        boolean deadLetter = (retryCount >= maxRetries);
+        String target = deadLetter ? deadLetterQueue : getRetryQueueName(getDelay(retryCount + 1));
+
+        if(!publish(target, body, copyProperties(props, retryCount + 1))) return false;
+
+        if(deadLetter)
+        {
+            numDeadLettered++;
+            log.error("Message failed " + (retryCount + 1) + " times. Moved it to " + deadLetterQueue);
+        }
+        else
+        {
+            numRetried++;
+            log.warn("Message will be retried in " + getDelay(retryCount + 1) / 1000 + " sec. Attempt "
+                    + (retryCount + 2) + " of " + (maxRetries + 1));
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Reject a message. Route it to a retry or dead-letter queue and acknowledge
+     * the original message. If routing fails, re-queue the original message.
+     * @param consumerChannel channel the message was delivered to
+     * @param deliveryTag delivery tag
+     * @param body message body
+     * @param props message properties
+     * @throws IOException an exception
+     */
+    public void reject(Channel consumerChannel, long deliveryTag, byte[] body, AMQP.BasicProperties props) throws IOException
+    {
+        if(route(body, props))
+        {
+            consumerChannel.basicAck(deliveryTag, false);
+        }
+        else
+        {
+            consumerChannel.basicReject(deliveryTag, true);
+        }
+    }
+
+
+    /**
+     * Elasticsearch is unavailable. Delay the message in a retry queue 
+     * without incrementing the retry count.
+     */
+    private boolean defer(byte[] body, AMQP.BasicProperties props, int retryCount)
+    {
+        // No retry queues. Re-queue. Consumers are paused while the circuit breaker is open.
+        if(maxRetries == 0) return false;
+        
+        int delay = getDelay(Math.min(Math.max(retryCount, 1), maxRetries));
+        if(!publish(getRetryQueueName(delay), body, copyProperties(props, retryCount))) return false;
+        
+        numDeferred++;
+        log.warn("Elasticsearch is unavailable. Message will be retried in " + delay / 1000 + " sec.");
+        return true;
+    }
+    
+    
+    private boolean publish(String target, byte[] body, AMQP.BasicProperties props)
+    {
+        try
+        {
+            if(!channel.isOpen()) openChannel();
+
+            channel.basicPublish("", target, props, body);
+            channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MS);
+            return true;
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not publish failed message to " + target + ". " + ExceptionUtils.getMessage(ex));
+            return false;
+        }
+    }
+
+
+    private void openChannel() throws Exception
+    {
+        channel = connection.createChannel();
+        channel.confirmSelect();
+    }
+
+
+    private void declareQueues() throws Exception
+    {
+        for(int attempt = 1; attempt <= maxRetries; attempt++)
+        {
+            int delay = getDelay(attempt);
+
+            Map<String, Object> args = new HashMap<>();
+            args.put("x-message-ttl", delay);
+            args.put("x-dead-letter-exchange", "");
+            args.put("x-dead-letter-routing-key", queue);
+
+            // Queue name includes the delay, so the arguments never change for existing queues.
+            channel.queueDeclare(getRetryQueueName(delay), true, false, false, args);
+        }
+
+        channel.queueDeclare(deadLetterQueue, true, false, false, null);
+    }
+
+
+    private String getRetryQueueName(int delay)
+    {
+        return queue + ".retry." + delay;
+    }
+
+
+    private int getDelay(int attempt)
+    {
+        long delay = (long)delayMs << Math.min(attempt - 1, 20);
+        return (int)Math.min(delay, maxDelayMs);
+    }
+
+
+    private static int getRetryCount(AMQP.BasicProperties props)
+    {
+        if(props == null || props.getHeaders() == null) return 0;
+
+        Object val = props.getHeaders().get(HEADER_RETRY_COUNT);
+        if(val instanceof Number)
+        {
+            return ((Number)val).intValue();
+        }
+
+        return 0;
+    }
+
+
+    private static AMQP.BasicProperties copyProperties(AMQP.BasicProperties props, int retryCount)
+    {
+        Map<String, Object> headers = new HashMap<>();
+        if(props != null && props.getHeaders() != null)
+        {
+            headers.putAll(props.getHeaders());
+        }
+        headers.put(HEADER_RETRY_COUNT, retryCount);
+
+        AMQP.BasicProperties.Builder bld = (props == null) ? new AMQP.BasicProperties.Builder() : props.builder();
+        // Persistent message
+        return bld.headers(headers).deliveryMode(2).build();
+    }
+
+
+    private Object getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retried", numRetried);
+        stats.put("deferred", numDeferred);
+        stats.put("deadLettered", numDeadLettered);
+        stats.put("deadLetterQueue", deadLetterQueue);
+
+        return stats;
+    }
+}
@@ -0,0 +1,48 @@
+package gov.nasa.pds.harvest.mq.spool;
+
+import gov.nasa.pds.harvest.mq.CollectionInventoryConsumer;
+import gov.nasa.pds.harvest.mq.MessageDecoder;
+import gov.nasa.pds.registry.common.mq.msg.CollectionInventoryMessage;
+
+
+/**
+ * A consumer of collection inventory messages from a spool directory
+ */
+public class CollectionInventoryConsumerSpool extends SpoolConsumer
+{
+    private MessageDecoder decoder;
+    private CollectionInventoryConsumer collectionInventoryConsumer;
+
+
+    /**
+     * Constructor
+     * @param queue spool queue
+     * @param consumer generic collection inventory consumer
+     * @param name worker thread name
+     */
+    public CollectionInventoryConsumerSpool(SpoolQueue queue, CollectionInventoryConsumer consumer, String name)
+    {
+        super(queue, name);
+        this.collectionInventoryConsumer = consumer;
+        decoder = new MessageDecoder();
+    }
+
+
+    @Override
+    protected boolean processMessage(byte[] body)
+    {
+        CollectionInventoryMessage msg = null;
+
+        try
+        {
+            msg = decoder.decode(body, null, CollectionInventoryMessage.class);
+        }
+        catch(Exception ex)
+        {
+            log.error("Invalid message", ex);
+            return true;
+        }
+
+        return collectionInventoryConsumer.processMessage(msg);
+    }
+}
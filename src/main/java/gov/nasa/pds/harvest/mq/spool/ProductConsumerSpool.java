@@ -0,0 +1,55 @@
+package gov.nasa.pds.harvest.mq.spool;
+
+import gov.nasa.pds.harvest.mq.MessageDecoder;
+import gov.nasa.pds.harvest.mq.ProductConsumer;
+import gov.nasa.pds.registry.common.mq.msg.ProductMessage;
+
+
+/**
+ * A consumer of product messages from a spool directory
+ */
+public class ProductConsumerSpool extends SpoolConsumer
+{
+    private MessageDecoder decoder;
+    private ProductConsumer prodConsumer;
+
+
+    /**
+     * Constructor
+     * @param queue spool queue
+     * @param prodConsumer generic product consumer
+     * @param name worker thread name
+     */
+    public ProductConsumerSpool(SpoolQueue queue, ProductConsumer prodConsumer, String name)
+    {
+        super(queue, name);
+        this.prodConsumer = prodConsumer;
+        decoder = new MessageDecoder();
+    }
+
+
+    @Override
+    public void close()
+    {
+        prodConsumer.close();
+    }
+
+
+    @Override
+    protected boolean processMessage(byte[] body)
+    {
+        ProductMessage msg = null;
+
+        try
+        {
+            msg = decoder.decode(body, null, ProductMessage.class);
+        }
+        catch(Exception ex)
+        {
+            log.error("Invalid message", ex);
+            return true;
+        }
+
+        return prodConsumer.processMessage(msg);
+    }
+}
@@ -0,0 +1,164 @@
+package gov.nasa.pds.harvest.mq.spool;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.cfg.SpoolCfg;
+import gov.nasa.pds.harvest.mq.MQClient;
+import gov.nasa.pds.harvest.mq.rmq.ConsumerFactory;
+import gov.nasa.pds.registry.common.mq.msg.MQConstants;
+
+
+/**
+ * Spool directory client. Consumes messages from a local directory
+ * instead of a message server. Used when the crawler and Harvest
+ * run on the same host, and for load testing without RabbitMQ.
+ * <p>
+ * Each queue is a subdirectory of the spool directory, named the same
+ * as the corresponding RabbitMQ queue, e.g., "harvest.products".
+ * </p>
+ */
+public class SpoolClient implements MQClient
+{
+    private Logger log;
+    private HarvestCfg harvestCfg;
+    private ConsumerFactory consumerFactory;
+
+    private Path spoolDir;
+    private SpoolQueue productQueue;
+    private SpoolQueue inventoryQueue;
+
+    private List<SpoolConsumer> consumers;
+
+
+    /**
+     * Constructor
+     * @param cfg Spool directory configuration
+     * @param harvestCfg Harvest configuration
+     * @param consumerFactory creates generic (message server independent) consumers
+     */
+    public SpoolClient(SpoolCfg cfg, HarvestCfg harvestCfg, ConsumerFactory consumerFactory)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        if(cfg == null || cfg.dir == null || cfg.dir.isBlank())
+        {
+            throw new IllegalArgumentException("Spool directory is not set.");
+        }
+
+        this.harvestCfg = harvestCfg;
+        this.consumerFactory = consumerFactory;
+
+        spoolDir = Paths.get(cfg.dir).toAbsolutePath();
+        consumers = new ArrayList<>();
+    }
+
+
+    @Override
+    public String getType()
+    {
+        return "Spool";
+    }
+
+
+    @Override
+    public String getConnectionInfo()
+    {
+        return spoolDir.toString();
+    }
+
+
+    @Override
+    public boolean isConnected()
+    {
+        return productQueue != null && Files.isDirectory(spoolDir);
+    }
+
+
+    @Override
+    public void run() throws Exception
+    {
+        log.info("Spool directory: " + spoolDir);
+
+        productQueue = new SpoolQueue(spoolDir.resolve(MQConstants.MQ_PRODUCTS));
+        inventoryQueue = new SpoolQueue(spoolDir.resolve(MQConstants.MQ_COLLECTION_INVENTORY));
+
+        // Start product consumers. ProductConsumer is not thread-safe. Each worker has its own.
+        for(int i = 0; i < harvestCfg.productConsumers; i++)
+        {
+            SpoolConsumer consumer = new ProductConsumerSpool(productQueue,
+                    consumerFactory.createProductConsumer(), "product-consumer-" + i);
+            consumer.start();
+            consumers.add(consumer);
+        }
+        log.info("Started " + harvestCfg.productConsumers + " product consumer(s)");
+
+        // Start Collection inventory consumer
+        SpoolConsumer inventoryConsumer = new CollectionInventoryConsumerSpool(inventoryQueue,
+                consumerFactory.createCollectionInventoryConsumer(), "inventory-consumer");
+        inventoryConsumer.start();
+        consumers.add(inventoryConsumer);
+        log.info("Started collection inventory consumer");
+
+        // Start watching directories after consumers are ready
+        productQueue.start();
+        inventoryQueue.start();
+    }
+
+
+    /**
+     * Stop watching spool directories, stop consumers and wait until
+     * messages being processed are completed (up to drain timeout).
+     * Unfinished messages are returned to the queue on next startup.
+     */
+    @Override
+    public void close()
+    {
+        long deadline = System.currentTimeMillis() + harvestCfg.drainTimeoutSec * 1000L;
+        log.info("Draining spool consumers. Timeout = " + harvestCfg.drainTimeoutSec + " sec.");
+
+        if(productQueue != null) productQueue.close();
+        if(inventoryQueue != null) inventoryQueue.close();
+
+        for(SpoolConsumer consumer: consumers)
+        {
+            consumer.stop();
+        }
+
+        boolean drained = true;
+        for(SpoolConsumer consumer: consumers)
+        {
+            try
+            {
+                long timeout = Math.max(deadline - System.currentTimeMillis(), 1);
+                drained = consumer.awaitDrained(timeout) && drained;
+            }
+            catch(InterruptedException ex)
+            {
+                drained = false;
+                break;
+            }
+        }
+
+        if(drained)
+        {
+            log.info("All in-flight messages are completed.");
+        }
+        else
+        {
+            log.warn("Drain timeout expired. Unfinished messages will be processed after restart.");
+        }
+
+        for(SpoolConsumer consumer: consumers)
+        {
+            consumer.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package gov.nasa.pds.harvest.mq.spool;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.dao.RegistryManager;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * Base class of spool directory consumers.
+ * Each consumer is a worker thread which takes messages from a spool queue
+ * and passes them to a generic (message server independent) consumer.
+ */
+public abstract class SpoolConsumer implements Runnable
+{
+    private static final int POLL_TIMEOUT_MS = 1000;
+    
+    protected Logger log;
+    private volatile boolean stopping;
+    private SpoolQueue queue;
+    private Thread thread;
+
+
+    /**
+     * Constructor
+     * @param queue spool queue
+     * @param name worker thread name
+     */
+    public SpoolConsumer(SpoolQueue queue, String name)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.queue = queue;
+        thread = new Thread(this, name);
+    }
+
+
+    /**
+     * Start consuming messages
+     */
+    public void start()
+    {
+        thread.start();
+    }
+
+
+    /**
+     * Stop consuming messages. The message being processed is not interrupted.
+     */
+    public void stop()
+    {
+        stopping = true;
+    }
+
+
+    /**
+     * Wait until the message being processed is completed
+     * @param timeoutMs max time to wait in milliseconds
+     * @return true if the worker thread has finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDrained(long timeoutMs) throws InterruptedException
+    {
+        thread.join(timeoutMs);
+        return !thread.isAlive();
+    }
+
+
+    /**
+     * Release resources. Called after the consumer is drained.
+     */
+    public void close()
+    {
+    }
+
+
+    @Override
+    public void run()
+    {
+        while(!stopping)
+        {
+            // Don't take messages while Elasticsearch is unavailable
+            if(RegistryManager.getInstance().getCallPolicy().isOpen())
+            {
+                try
+                {
+                    Thread.sleep(POLL_TIMEOUT_MS);
+                    continue;
+                }
+                catch(InterruptedException ex)
+                {
+                    return;
+                }
+            }
+            
+            Path file;
+            try
+            {
+                file = queue.poll(POLL_TIMEOUT_MS);
+                if(file == null) continue;
+            }
+            catch(InterruptedException ex)
+            {
+                return;
+            }
+
+            byte[] body;
+            try
+            {
+                body = Files.readAllBytes(file);
+            }
+            catch(Exception ex)
+            {
+                log.error("Could not read message " + file + ". " + ExceptionUtils.getMessage(ex));
+                queue.fail(file);
+                continue;
+            }
+
+            if(processMessage(body))
+            {
+                queue.done(file);
+            }
+            else
+            {
+                queue.fail(file);
+            }
+        }
+    }
+
+
+    /**
+     * Process a message
+     * @param body message body (JSON)
+     * @return true if the message was processed or could not be parsed (delete it).
+     * False if the message has to be moved to "failed" directory.
+     */
+    protected abstract boolean processMessage(byte[] body);
+}
@@ -0,0 +1,282 @@
+package gov.nasa.pds.harvest.mq.spool;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+
+
+/**
+ * A message queue backed by a local directory.
+ * <p>
+ * Each message is a JSON file ("*.json"). Producers should write messages
+ * to a temporary file (e.g., "*.tmp") and then rename it, so that consumers
+ * never see partially written messages.
+ * </p>
+ * <p>
+ * A consumer claims a message by atomically moving it to the ".processing"
+ * subdirectory. Only one consumer can succeed, so several workers can share
+ * the same queue. Processed messages are deleted. Failed messages are moved to the "failed"
+ * subdirectory. Messages left in ".processing" after a crash are returned
+ * to the queue on startup.
+ * </p>
+ * New messages are discovered with a WatchService. The directory is also
+ * rescanned periodically in case some events were lost.
+ */
+public class SpoolQueue
+{
+    private static final String PROCESSING_DIR = ".processing";
+    private static final String FAILED_DIR = "failed";
+    private static final String MSG_EXT = ".json";
+
+    private static final int RESCAN_INTERVAL_MS = 30_000;
+
+    private Logger log;
+
+    private Path queueDir;
+    private Path processingDir;
+    private Path failedDir;
+
+    // Candidate messages. Some of them could be already claimed by other consumers.
+    private LinkedBlockingQueue<Path> candidates;
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+
+    /**
+     * Constructor. Creates queue directories.
+     * @param queueDir queue directory
+     * @throws Exception an exception
+     */
+    public SpoolQueue(Path queueDir) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.queueDir = queueDir;
+        processingDir = queueDir.resolve(PROCESSING_DIR);
+        failedDir = queueDir.resolve(FAILED_DIR);
+
+        Files.createDirectories(processingDir);
+        Files.createDirectories(failedDir);
+
+        candidates = new LinkedBlockingQueue<>();
+    }
+
+
+    /**
+     * Start watching the queue directory for new messages.
+     * Messages left in ".processing" directory by previous run are returned to the queue.
+     * @throws Exception an exception
+     */
+    public void start() throws Exception
+    {
+        recover();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        queueDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+
+        // Register before the scan, so that messages created during the scan are not lost.
+        scan();
+
+        watchThread = new Thread(this::runWatch, "spool-watch-" + queueDir.getFileName());
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+
+    /**
+     * Stop watching the queue directory
+     */
+    public void close()
+    {
+        if(watchThread != null) watchThread.interrupt();
+        CloseUtils.close(watchService);
+    }
+
+
+    /**
+     * Get queue directory
+     * @return queue directory
+     */
+    public Path getDir()
+    {
+        return queueDir;
+    }
+
+
+    /**
+     * Wait for the next message and claim it.
+     * @param timeoutMs max time to wait in milliseconds
+     * @return claimed message file in ".processing" directory or null if the timeout expired.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Path poll(long timeoutMs) throws InterruptedException
+    {
+        while(true)
+        {
+            Path file = candidates.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if(file == null) return null;
+
+            Path claimed = processingDir.resolve(file.getFileName());
+
+            try
+            {
+                Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+                return claimed;
+            }
+            catch(NoSuchFileException ex)
+            {
+                // Already claimed by another consumer
+            }
+            catch(IOException ex)
+            {
+                log.error("Could not claim message " + file + ". " + ExceptionUtils.getMessage(ex));
+            }
+        }
+    }
+
+
+    /**
+     * Delete successfully processed message
+     * @param claimed claimed message file
+     */
+    public void done(Path claimed)
+    {
+        try
+        {
+            Files.deleteIfExists(claimed);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not delete message " + claimed + ". " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    /**
+     * Move failed message to "failed" directory.
+     * To retry the message, move it back to the queue directory.
+     * @param claimed claimed message file
+     */
+    public void fail(Path claimed)
+    {
+        Path target = failedDir.resolve(claimed.getFileName());
+
+        try
+        {
+            Files.move(claimed, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.warn("Moved failed message to " + target);
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not move message " + claimed + " to " + failedDir + ". " + ExceptionUtils.getMessage(ex));
+        }
+    }
+
+
+    private void runWatch()
+    {
+        while(true)
+        {
+            try
+            {
+                WatchKey key = watchService.poll(RESCAN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if(key == null)
+                {
+                    // Nothing happened for a while. Pick up anything we could have missed.
+                    if(candidates.isEmpty()) scan();
+                    continue;
+                }
+
+                for(WatchEvent<?> event: key.pollEvents())
+                {
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+                    {
+                        scan();
+                        continue;
+                    }
+
+                    Path file = queueDir.resolve((Path)event.context());
+                    if(isMessage(file)) candidates.add(file);
+                }
+
+                if(!key.reset())
+                {
+                    log.error("Spool directory " + queueDir + " is no longer accessible.");
+                    return;
+                }
+            }
+            catch(InterruptedException | ClosedWatchServiceException ex)
+            {
+                return;
+            }
+            catch(Exception ex)
+            {
+                log.error("Could not read spool directory " + queueDir + ". " + ExceptionUtils.getMessage(ex));
+            }
+        }
+    }
+
+
+    /**
+     * Add all existing messages to the list of candidates. Older messages first.
+     */
+    private void scan() throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(queueDir, "*" + MSG_EXT))
+        {
+            for(Path file: stream)
+            {
+                files.add(file);
+            }
+        }
+
+        // Producers should use sortable (e.g., timestamp-based) file names
+        Collections.sort(files);
+        candidates.addAll(files);
+    }
+
+
+    /**
+     * Return messages claimed by previous run back to the queue
+     */
+    private void recover() throws IOException
+    {
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(processingDir, "*" + MSG_EXT))
+        {
+            for(Path file: stream)
+            {
+                Files.move(file, queueDir.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                log.info("Returned unfinished message " + file.getFileName() + " to the queue.");
+            }
+        }
+    }
+
+
+    private static boolean isMessage(Path file)
+    {
+        return file.getFileName().toString().endsWith(MSG_EXT);
+    }
+}
@@ -0,0 +1,130 @@
+package gov.nasa.pds.harvest.proc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.apache.tika.Tika;
+
+import gov.nasa.pds.harvest.cache.ChecksumCache;
+import gov.nasa.pds.harvest.util.Md5Utils;
+import gov.nasa.pds.registry.common.meta.Metadata;
+import gov.nasa.pds.registry.common.meta.cfg.FileRefRule;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.registry.common.util.FieldMap;
+
+
+/**
+ * Extracts data file information ("ops:Data_File_Info/*" fields) of data files
+ * referenced in a PDS label. If the persistent checksum cache is enabled, 
+ * MD5 checksums are taken from the cache, so unchanged data files are not re-read.
+ * <p>
+ * Used instead of data file processing of registry-common FileMetadataExtractor.
+ * Data files (Metadata.dataFiles, set by 
+ * BasicMetadataExtractor), field names, formats and errors are the same.
+ * </p>
+ */
+public class DataFileExtractor
+{
+    private static final String PREFIX = "ops:Data_File_Info/ops:";
+
+    private ChecksumCache cache;
+    private Tika tika;
+
+
+    /**
+     * Constructor
+     * @param cache checksum cache or null if the cache is disabled
+     * @throws Exception an exception
+     */
+    public DataFileExtractor(ChecksumCache cache) throws Exception
+    {
+        this.cache = cache;
+        tika = new Tika();
+    }
+
+
+    /**
+     * Add data file fields of all data files referenced in a label
+     * @param labelFile PDS label file. Data file names are relative to its directory.
+     * @param meta metadata extracted from the label (data file names). Data file fields are added to it.
+     * @param fileRefRules rules to generate file references
+     * @throws Exception if a data file doesn't exist or could not be read
+     */
+    public void extract(File labelFile, Metadata meta, List<FileRefRule> fileRefRules) throws Exception
+    {
+        if(meta.dataFiles == null) return;
+
+        File baseDir = labelFile.getParentFile();
+
+        for(String fileName: meta.dataFiles)
+        {
+            File file = new File(baseDir, fileName);
+            if(!file.exists())
+            {
+                throw new Exception("Data file " + file.getAbsolutePath() + " doesn't exist");
+            }
+
+            addFileInfo(file, meta.fields, fileRefRules);
+        }
+    }
+
+
+    private void addFileInfo(File file, FieldMap fields, List<FileRefRule> fileRefRules) throws Exception
+    {
+        BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        fields.addValue(PREFIX + "creation_date_time",
+                attr.creationTime().toInstant().truncatedTo(ChronoUnit.SECONDS).toString());
+        fields.addValue(PREFIX + "file_name", file.getName());
+        fields.addValue(PREFIX + "file_size", String.valueOf(file.length()));
+        fields.addValue(PREFIX + "md5_checksum", (cache != null) ? cache.getMd5(file) : Md5Utils.md5Hex(file));
+        fields.addValue(PREFIX + "file_ref", getFileRef(file, fileRefRules));
+        fields.addValue(PREFIX + "mime_type", getMimeType(file));
+    }
+
+
+    private String getMimeType(File file) throws Exception
+    {
+        InputStream is = null;
+
+        try
+        {
+            is = new FileInputStream(file);
+            return tika.detect(is);
+        }
+        finally
+        {
+            CloseUtils.close(is);
+        }
+    }
+
+
+    /**
+     * Generate file reference ("file_ref" field) of a label or a data file
+     * @param file a file
+     * @param fileRefRules rules to replace file path prefixes
+     * @return file reference
+     */
+    static String getFileRef(File file, List<FileRefRule> fileRefRules)
+    {
+        String filePath = file.toURI().getPath();
+
+        if(fileRefRules != null)
+        {
+            for(FileRefRule rule: fileRefRules)
+            {
+                if(filePath.startsWith(rule.prefix))
+                {
+                    return rule.replacement + filePath.substring(rule.prefix.length());
+                }
+            }
+        }
+
+        return filePath;
+    }
+}
@@ -0,0 +1,63 @@
+package gov.nasa.pds.harvest.proc;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.w3c.dom.Document;
+
+import gov.nasa.pds.harvest.util.xml.DocumentBuilderPool;
+
+
+/**
+ * PDS label file parsed into XML DOM. The file is read into memory once and
+ * parsed from the bytes with a pooled parser. The DOM is shared by harvest's own
+ * processing steps (basic, reference and search metadata), and label file 
+ * information (checksum, size, BLOBs) is calculated from the bytes.
+ * <p>
+ * NOTE: Autogen extractor (registry-common) only accepts a file
+ * and needs a namespace-aware parser, so it still opens the label itself.
+ * </p>
+ */
+public class LabelFile
+{
+    /**
+     * Label file
+     */
+    public final File file;
+
+    /**
+     * Label file content
+     */
+    public final byte[] bytes;
+
+    /**
+     * Parsed XML DOM model of the label
+     */
+    public final Document doc;
+
+
+    private LabelFile(File file, byte[] bytes, Document doc)
+    {
+        this.file = file;
+        this.bytes = bytes;
+        this.doc = doc;
+    }
+
+
+    /**
+     * Read and parse a label file
+     * @param file PDS label file
+     * @param parsers DOM parser pool
+     * @return parsed label file
+     * @throws Exception an exception
+     */
+    public static LabelFile read(File file, DocumentBuilderPool parsers) throws Exception
+    {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        // System ID is used to resolve relative references and in error messages
+        Document doc = parsers.parse(bytes, file.toURI().toString());
+
+        return new LabelFile(file, bytes, doc);
+    }
+}
@@ -0,0 +1,136 @@
+package gov.nasa.pds.harvest.proc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.json.JSONObject;
+import org.json.XML;
+
+import gov.nasa.pds.harvest.util.Md5Utils;
+import gov.nasa.pds.registry.common.meta.Metadata;
+import gov.nasa.pds.registry.common.meta.cfg.FileRefRule;
+import gov.nasa.pds.registry.common.util.FieldMap;
+
+
+/**
+ * Extracts label file information ("ops:Label_File_Info/*" fields).
+ * MD5 checksum, file size and BLOBs are calculated from the label content
+ * already read into memory (LabelFile), so the label is not re-read.
+ * <p>
+ * Used instead of label file processing of registry-common FileMetadataExtractor.
+ * Field names, formats and order are the same.
+ * </p>
+ */
+public class LabelFileInfoExtractor
+{
+    private static final String PREFIX = "ops:Label_File_Info/ops:";
+
+    private boolean storeLabels;
+    private boolean storeJsonLabels;
+
+
+    /**
+     * Constructor
+     * @param storeLabels if true, store label as a compressed BLOB ("blob" field)
+     * @param storeJsonLabels if true, store label converted to JSON as a compressed BLOB ("json_blob" field)
+     */
+    public LabelFileInfoExtractor(boolean storeLabels, boolean storeJsonLabels)
+    {
+        this.storeLabels = storeLabels;
+        this.storeJsonLabels = storeJsonLabels;
+    }
+
+
+    /**
+     * Add label file fields
+     * @param label label file read into memory
+     * @param meta metadata extracted from the label. Label file fields are added to it.
+     * @param fileRefRules rules to generate file references
+     * @throws Exception an exception
+     */
+    public void extract(LabelFile label, Metadata meta, List<FileRefRule> fileRefRules) throws Exception
+    {
+        addFileInfo(label.file, label.bytes.length, Md5Utils.md5Hex(label.bytes), meta.fields, fileRefRules);
+
+        if(storeLabels)
+        {
+            meta.fields.addValue(PREFIX + "blob", getBlob(label.bytes));
+        }
+
+        if(storeJsonLabels)
+        {
+            meta.fields.addValue(PREFIX + "json_blob", getJsonBlob(label.bytes));
+        }
+    }
+
+
+    /**
+     * Add label file fields of a label not read into memory (e.g., a very large label).
+     * The checksum is calculated by reading the file. BLOBs are not stored.
+     * @param file PDS label file
+     * @param meta metadata extracted from the label. Label file fields are added to it.
+     * @param fileRefRules rules to generate file references
+     * @throws Exception an exception
+     */
+    public void extract(File file, Metadata meta, List<FileRefRule> fileRefRules) throws Exception
+    {
+        addFileInfo(file, file.length(), Md5Utils.md5Hex(file), meta.fields, fileRefRules);
+    }
+
+
+    private static void addFileInfo(File file, long size, String md5, FieldMap fields,
+            List<FileRefRule> fileRefRules) throws Exception
+    {
+        BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        fields.addValue(PREFIX + "creation_date_time",
+                attr.creationTime().toInstant().truncatedTo(ChronoUnit.SECONDS).toString());
+        fields.addValue(PREFIX + "file_name", file.getName());
+        fields.addValue(PREFIX + "file_size", String.valueOf(size));
+        fields.addValue(PREFIX + "md5_checksum", md5);
+        fields.addValue(PREFIX + "file_ref", DataFileExtractor.getFileRef(file, fileRefRules));
+    }
+
+
+    private static String getBlob(byte[] bytes) throws Exception
+    {
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+
+        try(DeflaterOutputStream dos = new DeflaterOutputStream(bas))
+        {
+            dos.write(bytes);
+        }
+
+        return Base64.getEncoder().encodeToString(bas.toByteArray());
+    }
+
+
+    private static String getJsonBlob(byte[] bytes) throws Exception
+    {
+        // Default charset, same as FileReader in registry-common
+        JSONObject json;
+        try(Reader rd = new InputStreamReader(new ByteArrayInputStream(bytes)))
+        {
+            json = XML.toJSONObject(rd, true);
+        }
+
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+        try(Writer wr = new OutputStreamWriter(new DeflaterOutputStream(bas)))
+        {
+            wr.write(json.toString());
+        }
+
+        return Base64.getEncoder().encodeToString(bas.toByteArray());
+    }
+}
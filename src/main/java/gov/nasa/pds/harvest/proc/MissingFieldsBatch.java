@@ -0,0 +1,173 @@
+package gov.nasa.pds.harvest.proc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.dao.RegistryManager;
+import gov.nasa.pds.registry.common.es.service.MissingFieldsProcessor;
+import gov.nasa.pds.registry.common.meta.FieldNameCache;
+import gov.nasa.pds.registry.common.meta.Metadata;
+import gov.nasa.pds.registry.common.util.FieldMap;
+import gov.nasa.pds.registry.common.util.FieldMapSet;
+import gov.nasa.pds.registry.common.util.xml.XmlNamespaces;
+
+
+/**
+ * Collects field names and XML namespaces of all documents of a product message.
+ * Fields missing from Elasticsearch schema are resolved once per message
+ * (one data dictionary query and one schema update), not once per label.
+ * <p>
+ * Date and boolean values are normalized by field type, which is known only after
+ * the schema is updated. Documents with fields missing from the schema are held 
+ * by this batch and have to be normalized and written after flush(). 
+ * Other documents are written right away.
+ * </p>
+ * This class is thread-safe. It is shared by all label processing threads of a consumer.
+ */
+public class MissingFieldsBatch
+{
+    /**
+     * A document waiting for the schema update
+     */
+    public static class DeferredDoc
+    {
+        public String file;
+        public Metadata meta;
+        public String jobId;
+
+        public DeferredDoc(String file, Metadata meta, String jobId)
+        {
+            this.file = file;
+            this.meta = meta;
+            this.jobId = jobId;
+        }
+    }
+
+
+    private Logger log;
+    private MissingFieldsProcessor mfProc;
+    private FieldNameCache fieldNameCache;
+
+    private Set<String> fieldNames;
+    private Map<String, String> uri2prefix;
+    private Map<String, String> prefix2location;
+    private List<DeferredDoc> deferredDocs;
+
+
+    /**
+     * Constructor
+     * @throws Exception an exception
+     */
+    public MissingFieldsBatch() throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+        mfProc = RegistryManager.getInstance().createMissingFieldsProcessor();
+        fieldNameCache = RegistryManager.getInstance().getFieldNameCache();
+
+        fieldNames = new HashSet<>();
+        uri2prefix = new HashMap<>();
+        prefix2location = new HashMap<>();
+        deferredDocs = new ArrayList<>();
+    }
+
+
+    /**
+     * Add fields of one document
+     * @param fields document fields
+     * @param nsInfo XML namespaces of the label
+     * @return true if all fields are in Elasticsearch schema, 
+     * and the document can be normalized and written right away.
+     */
+    public synchronized boolean add(FieldMap fields, XmlNamespaces nsInfo)
+    {
+        boolean allKnown = true;
+        for(String name: fields.getNames())
+        {
+            if(!fieldNameCache.schemaContainsField(name))
+            {
+                fieldNames.add(name);
+                allKnown = false;
+            }
+        }
+
+        if(nsInfo != null)
+        {
+            nsInfo.uri2prefix.forEach(uri2prefix::putIfAbsent);
+            nsInfo.prefix2location.forEach(prefix2location::putIfAbsent);
+        }
+        
+        return allKnown;
+    }
+
+
+    /**
+     * Hold a document with fields missing from Elasticsearch schema until flush()
+     * @param file label file of the document
+     * @param meta document metadata (not normalized)
+     * @param jobId harvest job ID
+     */
+    public synchronized void defer(String file, Metadata meta, String jobId)
+    {
+        deferredDocs.add(new DeferredDoc(file, meta, jobId));
+    }
+
+
+    /**
+     * Update Elasticsearch schema with fields missing from it, if any.
+     * Collected fields are cleared even if the update failed.
+     * @return documents held until the schema update, in the order they were added. 
+     * Normalize and write them now.
+     * @throws Exception an exception
+     */
+    public synchronized List<DeferredDoc> flush() throws Exception
+    {
+        List<DeferredDoc> docs = deferredDocs;
+        deferredDocs = new ArrayList<>();
+        
+        if(fieldNames.isEmpty()) 
+        {
+            clear();
+            return docs;
+        }
+
+        FieldMap fields = new FieldMapSet();
+        for(String name: fieldNames)
+        {
+            fields.addValue(name, "");
+        }
+
+        XmlNamespaces nsInfo = new XmlNamespaces();
+        nsInfo.uri2prefix.putAll(uri2prefix);
+        nsInfo.prefix2location.putAll(prefix2location);
+
+        clear();
+
+        log.debug("Checking " + fields.size() + " fields for missing in Elasticsearch schema");
+        RegistryManager.getInstance().getCallPolicy().call("schema", () -> 
+        {
+            mfProc.processDoc(fields, nsInfo);
+            return null;
+        });
+        
+        return docs;
+    }
+
+
+    /**
+     * Discard collected fields and documents, e.g., if the message could not be processed.
+     */
+    public synchronized void clear()
+    {
+        fieldNames.clear();
+        uri2prefix.clear();
+        prefix2location.clear();
+        deferredDocs.clear();
+    }
+}
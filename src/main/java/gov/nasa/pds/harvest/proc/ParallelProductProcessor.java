@@ -0,0 +1,188 @@
+package gov.nasa.pds.harvest.proc;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.job.Job;
+import gov.nasa.pds.registry.common.util.ExceptionUtils;
+import gov.nasa.pds.registry.common.util.doc.RegistryDocWriter;
+
+
+/**
+ * Process PDS4 label files of one product message in parallel.
+ * <p>
+ * ProductProcessor is not thread-safe. This class has a pool of
+ * ProductProcessor / RegistryDocWriter pairs, one per thread.
+ * Results are handed over in the same order as input files,
+ * so the output doesn't depend on thread scheduling.
+ * </p>
+ */
+public class ParallelProductProcessor
+{
+    /**
+     * Product processor and its document writer
+     */
+    private static class Worker
+    {
+        public ProductProcessor proc;
+        public RegistryDocWriter writer;
+    }
+
+    private Logger log;
+    private ExecutorService executor;
+    private BlockingQueue<Worker> workers;
+    // Max number of files in progress (processing or waiting to be handed over)
+    private int window;
+
+
+    /**
+     * Constructor
+     * @param cfg Harvest configuration
+     * @param numThreads max number of files processed in parallel
+     * @param name thread name prefix
+     * @param missingFields collects fields of processed documents (shared by all threads)
+     * @throws Exception an exception
+     */
+    public ParallelProductProcessor(HarvestCfg cfg, int numThreads, String name, 
+            MissingFieldsBatch missingFields) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+        window = numThreads * 2;
+
+        workers = new ArrayBlockingQueue<>(numThreads);
+        for(int i = 0; i < numThreads; i++)
+        {
+            Worker worker = new Worker();
+            worker.writer = new RegistryDocWriter();
+            worker.proc = new ProductProcessor(cfg, worker.writer, missingFields);
+            workers.add(worker);
+        }
+
+        AtomicInteger threadNum = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(numThreads, (r) ->
+        {
+            Thread thread = new Thread(r, name + "-" + threadNum.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Receives Elasticsearch documents of each processed file
+     */
+    public static interface ResultHandler
+    {
+        /**
+         * Called in the same order as files are listed, on the caller's thread.
+         * @param index file index
+         * @param docs Elasticsearch documents (NDJSON lines) of the file. 
+         * If the file could not be processed, the list is empty.
+         * @throws Exception an exception. Stops processing.
+         */
+        public void onResult(int index, List<String> docs) throws Exception;
+    }
+
+
+    /**
+     * Process files in parallel. To bound memory usage, only a few files
+     * ahead of the oldest unfinished file are processed at the same time.
+     * @param files PDS label files
+     * @param job Harvest job configuration parameters
+     * @param handler receives documents of each file in the same order as input files
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception if the handler threw an exception
+     */
+    public void processFiles(List<String> files, Job job, ResultHandler handler) throws Exception
+    {
+        Deque<Future<List<String>>> futures = new ArrayDeque<>(window);
+        int nextSubmit = 0;
+
+        try
+        {
+            for(int index = 0; index < files.size(); index++)
+            {
+                // Keep up to "window" files in progress
+                while(nextSubmit < files.size() && futures.size() < window)
+                {
+                    String file = files.get(nextSubmit++);
+                    futures.add(executor.submit(() -> processFile(file, job)));
+                }
+
+                handler.onResult(index, getResult(futures.poll()));
+            }
+        }
+        finally
+        {
+            // Cancel remaining tasks on error
+            for(Future<List<String>> future: futures)
+            {
+                future.cancel(false);
+            }
+        }
+    }
+
+
+    private List<String> getResult(Future<List<String>> future) throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException ex)
+        {
+            // Should not happen. processFile() doesn't throw exceptions.
+            log.error(ExceptionUtils.getMessage(ex));
+            return new ArrayList<>(0);
+        }
+    }
+
+
+    /**
+     * Stop worker threads
+     */
+    public void close()
+    {
+        executor.shutdown();
+    }
+
+
+    private List<String> processFile(String strFile, Job job) throws InterruptedException
+    {
+        Worker worker = workers.take();
+
+        try
+        {
+            worker.writer.clearData();
+            worker.proc.processFile(new File(strFile), job);
+
+            // Copy the documents. The writer is reused for the next file.
+            return new ArrayList<>(worker.writer.getData());
+        }
+        catch(Exception ex)
+        {
+            log.error("Could not process file " + strFile + ": " + ExceptionUtils.getMessage(ex));
+            // Ignore this file
+            return new ArrayList<>(0);
+        }
+        finally
+        {
+            worker.writer.clearData();
+            workers.put(worker);
+        }
+    }
+}
@@ -1,28 +1,28 @@
 package gov.nasa.pds.harvest.proc;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.Document;
 
+import gov.nasa.pds.harvest.cache.ChecksumCache;
 import gov.nasa.pds.harvest.cfg.HarvestCfg;
 import gov.nasa.pds.harvest.dao.RegistryManager;
 import gov.nasa.pds.harvest.job.Job;
-import gov.nasa.pds.registry.common.es.service.MissingFieldsProcessor;
+import gov.nasa.pds.harvest.util.xml.DocumentBuilderPool;
+import gov.nasa.pds.harvest.util.xml.LabelPruner;
 import gov.nasa.pds.registry.common.meta.AutogenExtractor;
 import gov.nasa.pds.registry.common.meta.BasicMetadataExtractor;
 import gov.nasa.pds.registry.common.meta.BundleMetadataExtractor;
-import gov.nasa.pds.registry.common.meta.FileMetadataExtractor;
 import gov.nasa.pds.registry.common.meta.InternalReferenceExtractor;
 import gov.nasa.pds.registry.common.meta.Metadata;
 import gov.nasa.pds.registry.common.meta.MetadataNormalizer;
 import gov.nasa.pds.registry.common.meta.SearchMetadataExtractor;
 import gov.nasa.pds.registry.common.util.doc.RegistryDocWriter;
-import gov.nasa.pds.registry.common.util.xml.XmlDomUtils;
 import gov.nasa.pds.registry.common.util.xml.XmlNamespaces;
 
 
@@ -34,10 +34,12 @@ public class ProductProcessor
 {
     private Logger log;
     
-    // Skip files bigger than 10MB
-    private static final long MAX_XML_FILE_LENGTH = 10_000_000;
+    // Files bigger than this are skipped or pruned by a streaming parser. 0 - no limit.
+    private long largeLabelThreshold;
+    private boolean pruneLargeLabels;
 
-    private DocumentBuilderFactory dbf;
+    private DocumentBuilderPool parsers;
+    private LabelPruner pruner;
 
     // Bundle and Collection extractors & processors
     private BundleMetadataExtractor bundleExtractor;
@@ -47,9 +49,12 @@ public class ProductProcessor
     private InternalReferenceExtractor refExtractor;
     private AutogenExtractor autogenExtractor;
     private SearchMetadataExtractor searchExtractor;
-    private FileMetadataExtractor fileDataExtractor;
+    private LabelFileInfoExtractor labelInfoExtractor;
+    // Null if data files are not processed
+    private DataFileExtractor dataFileExtractor;
 
-    private MissingFieldsProcessor mfProc;
+    // Missing fields of all documents of a message are processed at once
+    private MissingFieldsBatch missingFields;
     private MetadataNormalizer metaNormalizer;
 
     private RegistryDocWriter writer;
@@ -57,18 +62,27 @@ public class ProductProcessor
     
     /**
      * Constructor
+     * @param cfg Harvest configuration
+     * @param writer document writer
+     * @param missingFields collects fields of processed documents. 
+     * Call missingFields.flush() and write documents returned by it 
+     * before loading the documents into Elasticsearch.
      * @throws Exception
      */
-    public ProductProcessor(HarvestCfg cfg, RegistryDocWriter writer) throws Exception
+    public ProductProcessor(HarvestCfg cfg, RegistryDocWriter writer, MissingFieldsBatch missingFields) throws Exception
     {
         if(cfg == null) throw new IllegalArgumentException("Configuration is null");
         if(writer == null) throw new IllegalArgumentException("Writer is null");
+        if(missingFields == null) throw new IllegalArgumentException("Missing fields batch is null");
         this.writer = writer;
+        this.missingFields = missingFields;
         
         log = LogManager.getLogger(getClass());
 
-        dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(false);
+        largeLabelThreshold = cfg.largeLabelThreshold;
+        pruneLargeLabels = cfg.pruneLargeLabels;
+        parsers = DocumentBuilderPool.getInstance();
+        pruner = new LabelPruner();
         
         basicExtractor = new BasicMetadataExtractor();
         refExtractor = new InternalReferenceExtractor();
@@ -77,15 +91,18 @@ public class ProductProcessor
         
         searchExtractor = new SearchMetadataExtractor();
         
-        fileDataExtractor = new FileMetadataExtractor();
-        fileDataExtractor.setProcessDataFiles(cfg.processDataFiles);
-        fileDataExtractor.setStoreLabels(cfg.storeLabels, cfg.storeJsonLabels);
+        labelInfoExtractor = new LabelFileInfoExtractor(cfg.storeLabels, cfg.storeJsonLabels);
+        
+        // Checksum cache is optional (null if disabled)
+        if(cfg.processDataFiles)
+        {
+            dataFileExtractor = new DataFileExtractor(ChecksumCache.getInstance());
+        }
         
         bundleExtractor = new BundleMetadataExtractor();
         
         // Services
         RegistryManager mgr = RegistryManager.getInstance();        
-        mfProc = mgr.createMissingFieldsProcessor();
         metaNormalizer = mgr.createMetadataNormalizer();
     }
 
@@ -98,26 +115,69 @@ public class ProductProcessor
      */
     public void processFile(File file, Job job) throws Exception
     {
-        // Skip very large files
-        if(file.length() > MAX_XML_FILE_LENGTH)
+        // Very large files are not loaded into memory
+        if(largeLabelThreshold > 0 && file.length() > largeLabelThreshold)
         {
-            log.warn("File is too big to parse: " + file.getAbsolutePath());
+            if(pruneLargeLabels)
+            {
+                processLargeFile(file, job);
+            }
+            else
+            {
+                log.warn("File is too big to parse: " + file.getAbsolutePath());
+            }
+            
             return;
         }
 
-        Document doc = XmlDomUtils.readXml(dbf, file);
-        processMetadata(file, doc, job);
+        // The DOM is shared by processing steps
+        LabelFile label = LabelFile.read(file, parsers);
+        processMetadata(file, label.doc, file, label, job);
     }
 
     
+    /**
+     * Process a label bigger than "largeLabelThreshold". A streaming parser
+     * writes a copy without table record and field definitions into a temporary file, 
+     * and only the copy is parsed into a DOM. Fields autogenerated from the dropped 
+     * elements are not indexed.
+     * @param file PDS label XML file
+     * @param job Harvest job configuration parameters
+     * @throws Exception Generic exception
+     */
+    private void processLargeFile(File file, Job job) throws Exception
+    {
+        log.info("Large label (" + file.length() + " bytes). Table records and fields will be skipped: " 
+                + file.getAbsolutePath());
+        
+        // Autogen extractor (registry-common) only accepts a file. Give it the pruned copy.
+        Path prunedFile = Files.createTempFile("harvest-label-", ".xml");
+        try
+        {
+            pruner.prune(file, prunedFile.toFile());
+            Document doc = parsers.parse(prunedFile.toFile(), file.toURI().toString());
+            
+            processMetadata(file, doc, prunedFile.toFile(), null, job);
+        }
+        finally
+        {
+            Files.deleteIfExists(prunedFile);
+        }
+    }
+    
+    
     /**
      * Extract metadata from a label file
      * @param file PDS label file
-     * @param doc Parsed XML DOM model of the PDS label file
+     * @param doc parsed label
+     * @param autogenFile file to extract autogenerated fields from. Usually the label file itself.
+     * @param label label file read into memory. Null for large labels. 
+     * Their checksum is calculated from the file and BLOBs are not stored.
      * @param job Harvest job configuration parameters
      * @throws Exception Generic exception
      */
-    private void processMetadata(File file, Document doc, Job job) throws Exception
+    private void processMetadata(File file, Document doc, File autogenFile, 
+            LabelFile label, Job job) throws Exception
     {
         // Extract basic metadata
         Metadata meta = basicExtractor.extract(file, doc);
@@ -136,23 +196,57 @@ public class ProductProcessor
         // Internal references
         refExtractor.addRefs(meta.intRefs, doc);
         
-        // Extract fields autogenerated from data dictionary
-        XmlNamespaces nsInfo = autogenExtractor.extract(file, meta.fields);
+        // Extract fields autogenerated from data dictionary.
+        // NOTE: Autogen extractor (registry-common) only accepts a file, 
+        // so it still opens the label itself.
+        XmlNamespaces nsInfo = autogenExtractor.extract(autogenFile, meta.fields);
         
         // Extract search fields
         searchExtractor.extract(doc, meta.fields);
 
         // Extract file data
         log.info("Extract metadata with rule " + job.fileRefRules.get(0).prefix);
-        fileDataExtractor.extract(file, meta, job.fileRefRules);
+        if(label != null)
+        {
+            labelInfoExtractor.extract(label, meta, job.fileRefRules);
+        }
+        else
+        {
+            labelInfoExtractor.extract(file, meta, job.fileRefRules);
+        }
+        
+        if(dataFileExtractor != null)
+        {
+            dataFileExtractor.extract(file, meta, job.fileRefRules);
+        }
 
-        // Process missing fields
-        mfProc.processDoc(meta.fields, nsInfo);
+        // Collect fields to check for missing in Elasticsearch schema (once per message).
+        // Types of missing fields are not known until the schema is updated. 
+        // Normalize and write such documents later.
+        if(missingFields.add(meta.fields, nsInfo))
+        {
+            write(meta, job.jobId);
+        }
+        else
+        {
+            missingFields.defer(file.getPath(), meta, job.jobId);
+        }
+    }
+    
+    
+    /**
+     * Normalize date and boolean field values and write the document
+     * @param meta document metadata
+     * @param jobId harvest job ID
+     * @throws Exception an exception
+     */
+    public void write(Metadata meta, String jobId) throws Exception
+    {
         // Fix (normalize) date and boolean field values
         metaNormalizer.normalizeValues(meta.fields);
 
         // Write metadata
-        writer.write(meta, job.jobId);
+        writer.write(meta, jobId);
     }
 
     
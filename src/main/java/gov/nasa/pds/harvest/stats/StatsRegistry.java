@@ -0,0 +1,48 @@
+package gov.nasa.pds.harvest.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+
+/**
+ * Collects runtime statistics of Harvest server components 
+ * (retries, caches, Elasticsearch latency, etc.) to report them 
+ * on the status page.
+ * <p>
+ * Components register a statistics source once. The source is called
+ * every time the status page is requested. It should return a simple
+ * model object or a map, which can be serialized to JSON.
+ * </p>
+ */
+public class StatsRegistry
+{
+    private static final Map<String, Supplier<Object>> sources = new LinkedHashMap<>();
+
+    
+    /**
+     * Register statistics source
+     * @param name statistics name (key in status JSON)
+     * @param source returns current statistics
+     */
+    public static synchronized void register(String name, Supplier<Object> source)
+    {
+        sources.put(name, source);
+    }
+    
+    
+    /**
+     * Get current statistics of all registered sources
+     * @return statistics name -> statistics object
+     */
+    public static synchronized Map<String, Object> getStats()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for(Map.Entry<String, Supplier<Object>> entry: sources.entrySet())
+        {
+            stats.put(entry.getKey(), entry.getValue().get());
+        }
+        
+        return stats;
+    }
+}
@@ -32,6 +32,8 @@ public class Log4jConfigurator
         ConfigurationBuilder<BuiltConfiguration> cfg = ConfigurationBuilderFactory.newConfigurationBuilder();
         cfg.setStatusLevel(Level.ERROR);
         cfg.setConfigurationName("Harvest");
+        // Harvest server stops Log4j after draining message consumers
+        cfg.setShutdownHook("disable");
         
         // Appenders
         addConsoleAppender(cfg, "console");
@@ -0,0 +1,55 @@
+package gov.nasa.pds.harvest.util;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.binary.Hex;
+
+
+/**
+ * MD5 checksum utility methods. Checksums are formatted the same way
+ * as in "ops:Label_File_Info/ops:md5_checksum" field (lower case hex).
+ */
+public class Md5Utils
+{
+    private static final int BUF_SIZE = 1024 * 1024;
+
+
+    /**
+     * Calculate MD5 checksum of a byte array
+     * @param bytes data
+     * @return MD5 checksum as a lower case hex string
+     * @throws Exception an exception
+     */
+    public static String md5Hex(byte[] bytes) throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        return Hex.encodeHexString(md.digest(bytes));
+    }
+
+
+    /**
+     * Calculate MD5 checksum of a file
+     * @param file a file
+     * @return MD5 checksum as a lower case hex string
+     * @throws Exception an exception
+     */
+    public static String md5Hex(File file) throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] buf = new byte[BUF_SIZE];
+
+        try(InputStream is = Files.newInputStream(file.toPath()))
+        {
+            int count;
+            while((count = is.read(buf)) > 0)
+            {
+                md.update(buf, 0, count);
+            }
+        }
+
+        return Hex.encodeHexString(md.digest());
+    }
+}
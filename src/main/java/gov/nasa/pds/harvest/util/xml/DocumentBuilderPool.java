@@ -0,0 +1,213 @@
+package gov.nasa.pds.harvest.util.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+
+/**
+ * A bounded pool of pre-configured DOM parsers (DocumentBuilders).
+ * Parsers are reset() and reused, so a new parser is not created for each label.
+ * <p>
+ * Parsers are hardened: DTDs and external entities are not loaded,
+ * XInclude is disabled, and secure processing limits are on.
+ * A different DOM implementation (e.g., Xerces) could be plugged in
+ * by factory class name.
+ * </p>
+ */
+public class DocumentBuilderPool
+{
+    private static final int DEFAULT_MAX_IDLE = 16;
+
+    // Never resolve external entities (in case DTD loading could not be disabled)
+    private static final EntityResolver EMPTY_RESOLVER = 
+            (publicId, systemId) -> new InputSource(new StringReader(""));
+
+    // Singleton
+    private static DocumentBuilderPool instance = null;
+
+    private Logger log;
+    private DocumentBuilderFactory dbf;
+    private BlockingQueue<DocumentBuilder> idle;
+
+
+    /**
+     * Constructor
+     * @param factoryClassName DocumentBuilderFactory implementation class name.
+     * If null, default JDK implementation is used.
+     * @param maxIdle max number of parsers kept in the pool
+     * @throws Exception an exception
+     */
+    public DocumentBuilderPool(String factoryClassName, int maxIdle) throws Exception
+    {
+        log = LogManager.getLogger(this.getClass());
+        dbf = createFactory(factoryClassName);
+        idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+
+    /**
+     * Initialize the singleton.
+     * @param factoryClassName DocumentBuilderFactory implementation class name. Could be null.
+     * @param maxIdle max number of parsers kept in the pool
+     * @throws Exception an exception
+     */
+    public static synchronized void init(String factoryClassName, int maxIdle) throws Exception
+    {
+        instance = new DocumentBuilderPool(factoryClassName, maxIdle);
+    }
+
+
+    /**
+     * Get the singleton instance. If the singleton was not initialized,
+     * a pool with default JDK parser implementation is created.
+     * @return DocumentBuilder pool singleton
+     * @throws Exception an exception
+     */
+    public static synchronized DocumentBuilderPool getInstance() throws Exception
+    {
+        if(instance == null)
+        {
+            instance = new DocumentBuilderPool(null, DEFAULT_MAX_IDLE);
+        }
+
+        return instance;
+    }
+
+
+    /**
+     * Parse XML
+     * @param bytes XML document
+     * @param systemId System ID to resolve relative references and to report errors. Could be null.
+     * @return DOM model
+     * @throws Exception an exception
+     */
+    public Document parse(byte[] bytes, String systemId) throws Exception
+    {
+        DocumentBuilder builder = borrow();
+
+        try
+        {
+            return builder.parse(new ByteArrayInputStream(bytes), systemId);
+        }
+        finally
+        {
+            release(builder);
+        }
+    }
+
+
+    /**
+     * Parse XML file
+     * @param file XML file
+     * @param systemId System ID to resolve relative references and to report errors. Could be null.
+     * @return DOM model
+     * @throws Exception an exception
+     */
+    public Document parse(File file, String systemId) throws Exception
+    {
+        DocumentBuilder builder = borrow();
+
+        try(InputStream is = new BufferedInputStream(new FileInputStream(file)))
+        {
+            return builder.parse(is, systemId);
+        }
+        finally
+        {
+            release(builder);
+        }
+    }
+
+
+    /**
+     * Take a parser from the pool or create a new one if the pool is empty.
+     * Return the parser with release() after use.
+     * @return DOM parser
+     * @throws Exception an exception
+     */
+    public DocumentBuilder borrow() throws Exception
+    {
+        DocumentBuilder builder = idle.poll();
+        if(builder != null) return builder;
+
+        builder = dbf.newDocumentBuilder();
+        builder.setEntityResolver(EMPTY_RESOLVER);
+        return builder;
+    }
+
+
+    /**
+     * Reset a parser and return it to the pool. If the pool is full, the parser is discarded.
+     * @param builder DOM parser
+     */
+    public void release(DocumentBuilder builder)
+    {
+        if(builder == null) return;
+
+        try
+        {
+            builder.reset();
+            // reset() restores default entity resolver
+            builder.setEntityResolver(EMPTY_RESOLVER);
+        }
+        catch(Exception ex)
+        {
+            // Don't reuse this parser
+            return;
+        }
+
+        idle.offer(builder);
+    }
+
+
+    private DocumentBuilderFactory createFactory(String className)
+    {
+        DocumentBuilderFactory factory = (className == null || className.isBlank()) ?
+                DocumentBuilderFactory.newInstance() :
+                DocumentBuilderFactory.newInstance(className, getClass().getClassLoader());
+
+        log.info("XML parser: " + factory.getClass().getName());
+
+        // PDS labels are parsed by non-namespace-aware parser
+        factory.setNamespaceAware(false);
+        factory.setValidating(false);
+        factory.setXIncludeAware(false);
+
+        // Secure processing limits entity expansion (e.g., "billion laughs")
+        setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+
+        return factory;
+    }
+
+
+    private void setFeature(DocumentBuilderFactory factory, String name, boolean value)
+    {
+        try
+        {
+            factory.setFeature(name, value);
+        }
+        catch(Exception ex)
+        {
+            // Not all implementations support all features
+            log.warn("XML parser doesn't support feature " + name);
+        }
+    }
+}
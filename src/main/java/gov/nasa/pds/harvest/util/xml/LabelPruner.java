@@ -0,0 +1,115 @@
+package gov.nasa.pds.harvest.util.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Set;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.XMLEvent;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Creates a pruned copy of a large PDS label with StAX (streaming) parser.
+ * Bulky table record and field definitions ("Record_Character", "Record_Binary",
+ * "Record_Delimited" with all "Field_*" children) are dropped. Neither the label
+ * nor the copy is loaded into memory. The copy is written to a file and is usually
+ * small enough to be processed the regular way.
+ * <p>
+ * NOTE: Fields autogenerated from dropped elements (record and field counts, names, etc.)
+ * are not indexed for pruned labels.
+ * </p>
+ */
+public class LabelPruner
+{
+    /**
+     * Elements dropped with all their children
+     */
+    private static final Set<String> PRUNED_ELEMENTS = Set.of(
+            "Record_Character", "Record_Binary", "Record_Delimited");
+
+    private XMLInputFactory inFactory;
+    private XMLOutputFactory outFactory;
+
+
+    /**
+     * Constructor
+     */
+    public LabelPruner()
+    {
+        inFactory = XMLInputFactory.newFactory();
+        inFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+        outFactory = XMLOutputFactory.newFactory();
+    }
+
+
+    /**
+     * Create a pruned copy of a label
+     * @param file PDS label file
+     * @param outFile pruned label (UTF-8 XML)
+     * @throws Exception an exception
+     */
+    public void prune(File file, File outFile) throws Exception
+    {
+        XMLEventReader reader = null;
+        XMLEventWriter writer = null;
+
+        try(InputStream is = Files.newInputStream(file.toPath());
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(outFile.toPath())))
+        {
+            reader = inFactory.createXMLEventReader(is);
+            writer = outFactory.createXMLEventWriter(out, "UTF-8");
+
+            // Depth inside a pruned subtree. 0 - not pruning.
+            int skipDepth = 0;
+
+            while(reader.hasNext())
+            {
+                XMLEvent event = reader.nextEvent();
+
+                if(skipDepth > 0)
+                {
+                    if(event.isStartElement()) skipDepth++;
+                    else if(event.isEndElement()) skipDepth--;
+                    continue;
+                }
+
+                if(event.isStartElement()
+                        && PRUNED_ELEMENTS.contains(event.asStartElement().getName().getLocalPart()))
+                {
+                    skipDepth = 1;
+                    continue;
+                }
+
+                writer.add(event);
+            }
+
+            writer.flush();
+        }
+        finally
+        {
+            if(writer != null)
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch(Exception ex)
+                {
+                    // Ignore
+                }
+            }
+            
+            CloseUtils.close(reader);
+        }
+    }
+}
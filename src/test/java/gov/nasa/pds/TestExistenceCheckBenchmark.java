@@ -0,0 +1,166 @@
+package gov.nasa.pds;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+
+import com.google.gson.stream.JsonWriter;
+
+import gov.nasa.pds.harvest.cfg.EsClientCfg;
+import gov.nasa.pds.harvest.dao.EsClientBuilder;
+import gov.nasa.pds.harvest.dao.RegistryDao;
+import gov.nasa.pds.registry.common.es.client.SearchResponseParser;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Compare existence check latency (ms per ID set):
+ * "search" - one "ids" search query with size = number of IDs (previous implementation);
+ * "mget" - chunked, concurrent multi get requests (RegistryDao.getNonExistingIds()).
+ * <p>
+ * Usage: TestExistenceCheckBenchmark &lt;es url&gt; &lt;file with one LIDVID per line&gt; [rounds] [chunk size] [concurrency]
+ * </p>
+ * Search query fails for ID sets bigger than "index.max_result_window" (10000 by default).
+ */
+public class TestExistenceCheckBenchmark
+{
+    private static final String INDEX_NAME = "registry";
+
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 2)
+        {
+            System.out.println("Usage: TestExistenceCheckBenchmark <es url> <lidvid file> [rounds] [chunk size] [concurrency]");
+            return;
+        }
+
+        List<String> ids = new ArrayList<>();
+        for(String line: Files.readAllLines(Paths.get(args[1])))
+        {
+            line = line.trim();
+            if(!line.isEmpty()) ids.add(line);
+        }
+
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int chunkSize = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        System.out.println("IDs: " + ids.size() + ", rounds: " + rounds
+                + ", chunk size: " + chunkSize + ", concurrency: " + concurrency);
+
+        RestClient client = new EsClientBuilder(args[0], new EsClientCfg()).build();
+
+        try
+        {
+            RegistryDao dao = new RegistryDao(client, INDEX_NAME);
+            dao.setLookupChunking(chunkSize, concurrency);
+
+            // Warm up
+            runSearch(client, ids);
+            runMget(dao, ids);
+
+            long searchMs = 0;
+            long mgetMs = 0;
+            for(int i = 0; i < rounds; i++)
+            {
+                long ms = runSearch(client, ids);
+                searchMs = (searchMs < 0 || ms < 0) ? -1 : searchMs + ms;
+                mgetMs += runMget(dao, ids);
+            }
+
+            print("search", rounds, searchMs);
+            print("mget", rounds, mgetMs);
+        }
+        finally
+        {
+            CloseUtils.close(client);
+        }
+    }
+
+
+    private static long runSearch(RestClient client, List<String> ids)
+    {
+        long t0 = System.currentTimeMillis();
+
+        try
+        {
+            Request req = new Request("GET", "/" + INDEX_NAME + "/_search");
+            req.setJsonEntity(createSearchIdsRequest(ids));
+            Response resp = client.performRequest(req);
+
+            AtomicInteger found = new AtomicInteger();
+            new SearchResponseParser().parseResponse(resp, (id, src) -> found.incrementAndGet());
+        }
+        catch(Exception ex)
+        {
+            System.out.println("search failed: " + ex.getMessage());
+            return -1;
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    /**
+     * Create "ids" search query without source. Page size = number of IDs.
+     */
+    private static String createSearchIdsRequest(List<String> ids) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+
+        writer.beginObject();
+        writer.name("_source").value(false);
+        writer.name("size").value(ids.size());
+
+        writer.name("query");
+        writer.beginObject();
+        writer.name("ids");
+        writer.beginObject();
+
+        writer.name("values");
+        writer.beginArray();
+        for(String id: ids)
+        {
+            writer.value(id);
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.endObject();
+        writer.endObject();
+
+        writer.close();
+        return out.toString();
+    }
+
+
+    private static long runMget(RegistryDao dao, List<String> ids) throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+        Set<String> nonExisting = dao.getNonExistingIds(ids);
+        if(nonExisting == null) throw new Exception("No result");
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private static void print(String name, int rounds, long timeMs)
+    {
+        if(timeMs < 0)
+        {
+            System.out.format("%-7s failed\n", name);
+            return;
+        }
+
+        System.out.format("%-7s %8d ms total  %8.1f ms / ID set\n", name, timeMs, (double)timeMs / rounds);
+    }
+}
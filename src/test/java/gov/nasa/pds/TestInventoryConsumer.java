@@ -1,6 +1,7 @@
 package gov.nasa.pds;
 
 import gov.nasa.pds.harvest.cfg.HarvestCfg;
+import gov.nasa.pds.harvest.dao.RegistryManager;
 import gov.nasa.pds.harvest.mq.CollectionInventoryConsumer;
 import gov.nasa.pds.harvest.util.Log4jConfigurator;
 import gov.nasa.pds.registry.common.cfg.RegistryCfg;
@@ -21,10 +22,19 @@ public class TestInventoryConsumer
         registryCfg.url = "http://localhost:9200";
         registryCfg.indexName = "t1";
 
-        CollectionInventoryConsumer consumer = new CollectionInventoryConsumer(registryCfg);
+        RegistryManager.init(registryCfg);
         
-        CollectionInventoryMessage msg = createTestMessage();
-        consumer.processMessage(msg);
+        try
+        {
+            CollectionInventoryConsumer consumer = new CollectionInventoryConsumer(registryCfg);
+            
+            CollectionInventoryMessage msg = createTestMessage();
+            consumer.processMessage(msg);
+        }
+        finally
+        {
+            RegistryManager.destroy();
+        }
     }
 
     
@@ -21,10 +21,11 @@ public class TestProductConsumer
             Log4jConfigurator.configure("DEBUG", "/tmp/t.log");
             initRegistry(cfg.registryCfg);
             
-            ProductConsumer consumer = new ProductConsumer(cfg.harvestCfg, cfg.registryCfg);
+            ProductConsumer consumer = new ProductConsumer(cfg.harvestCfg);
             
             ProductMessage msg = createTestMessage();
             consumer.processMessage(msg);
+            consumer.close();
         }
         finally
         {
@@ -5,6 +5,7 @@ import java.util.List;
 
 import gov.nasa.pds.harvest.cfg.HarvestCfg;
 import gov.nasa.pds.harvest.job.Job;
+import gov.nasa.pds.harvest.proc.MissingFieldsBatch;
 import gov.nasa.pds.harvest.proc.ProductProcessor;
 import gov.nasa.pds.registry.common.util.doc.RegistryDocWriter;
 
@@ -24,11 +25,16 @@ public class TestProductProcessor
         cfg.processDataFiles = false;
         
         RegistryDocWriter writer = new RegistryDocWriter();
-        ProductProcessor proc = new ProductProcessor(cfg, writer);
+        MissingFieldsBatch missingFields = new MissingFieldsBatch();
+        ProductProcessor proc = new ProductProcessor(cfg, writer, missingFields);
         
         writer.clearData();
         
         proc.processFile(file, job);
+        for(MissingFieldsBatch.DeferredDoc doc: missingFields.flush())
+        {
+            proc.write(doc.meta, doc.jobId);
+        }
         
         List<String> data = writer.getData();
         int size = 0;
@@ -0,0 +1,111 @@
+package gov.nasa.pds;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import gov.nasa.pds.harvest.util.xml.DocumentBuilderPool;
+
+
+/**
+ * Compare label parsing throughput (labels / second):
+ * "before" - new DocumentBuilder for each label, parse from file;
+ * "after" - pooled, hardened DocumentBuilder, parse from bytes.
+ * <p>
+ * Usage: TestXmlParserBenchmark &lt;directory with PDS4 labels&gt; [rounds] [factory class]
+ * </p>
+ */
+public class TestXmlParserBenchmark
+{
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 1)
+        {
+            System.out.println("Usage: TestXmlParserBenchmark <label dir> [rounds] [factory class]");
+            return;
+        }
+
+        List<File> files = listLabels(new File(args[0]));
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String factoryClass = args.length > 2 ? args[2] : null;
+
+        System.out.println("Labels: " + files.size() + ", rounds: " + rounds);
+        if(files.isEmpty()) return;
+
+        // Warm up JIT
+        runBefore(files);
+        runAfter(files, factoryClass);
+
+        long beforeMs = 0;
+        long afterMs = 0;
+        for(int i = 0; i < rounds; i++)
+        {
+            beforeMs += runBefore(files);
+            afterMs += runAfter(files, factoryClass);
+        }
+
+        print("before", files.size() * rounds, beforeMs);
+        print("after", files.size() * rounds, afterMs);
+    }
+
+
+    private static long runBefore(List<File> files) throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(false);
+
+        for(File file: files)
+        {
+            DocumentBuilder builder = dbf.newDocumentBuilder();
+            builder.parse(file);
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private static long runAfter(List<File> files, String factoryClass) throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        DocumentBuilderPool pool = new DocumentBuilderPool(factoryClass, 1);
+
+        for(File file: files)
+        {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            pool.parse(bytes, file.toURI().toString());
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private static void print(String name, int numLabels, long timeMs)
+    {
+        double rate = timeMs == 0 ? 0 : numLabels * 1000.0 / timeMs;
+        System.out.format("%-7s %8d ms  %10.1f labels/sec\n", name, timeMs, rate);
+    }
+
+
+    private static List<File> listLabels(File dir) throws Exception
+    {
+        List<File> files = new ArrayList<>();
+
+        try(Stream<Path> paths = Files.walk(dir.toPath()))
+        {
+            paths.filter(p -> p.toString().toLowerCase().endsWith(".xml"))
+                .forEach(p -> files.add(p.toFile()));
+        }
+
+        return files;
+    }
+}